@@ -3,6 +3,7 @@ plugins {
     id("maven-publish")
     id("signing")
     id("io.github.gradle-nexus.publish-plugin") version "1.0.0"
+    id("me.champeau.jmh") version "0.6.8"
 }
 
 group = "io.github.abvadabra"
@@ -23,6 +24,10 @@ tasks.getByName<Test>("test") {
     useJUnitPlatform()
 }
 
+jmh {
+    jmhVersion.set("1.35")
+}
+
 val sourceJar by tasks.registering(Jar::class) {
     archiveClassifier.set("sources")
     from(sourceSets.main.get().allJava)
@@ -0,0 +1,281 @@
+package io.github.layout.cli;
+
+import io.github.layout.Layout;
+import io.github.layout.LayoutContext;
+import io.github.layout.LayoutRecorder;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Headless entry point which lays out a stream of trees, one after another, with a single reused
+ * context, and streams calculated rects of every tree as soon as it is done. Memory use only
+ * depends on the largest tree in the stream.
+ * <p>
+ * Usage: {@code layout-cli [--text | --binary] [input file]}. Input is read from stdin when no file
+ * is given, results are written to stdout.
+ * <p>
+ * Binary input is a sequence of records, each of them a 4 byte little endian length followed by a
+ * trace of calls building the tree, as written by {@link LayoutRecorder}. For every record the output
+ * has a 4 byte little endian number of items followed by x, y, width and height of every item as
+ * little endian floats. Records longer than 256 MiB are rejected as malformed input.
+ * <p>
+ * Text input has a tree per line, items are separated by {@code ;} and item 0 is the root. Every item is
+ * {@code parent width height [contain [behave [left top right bottom]]]}, where parent is the index of
+ * an earlier item which the item is inserted into (ignored for the root), flags are decimal or
+ * {@code 0x} prefixed hex, and the last four values are margins. For every line the output has a line
+ * with {@code x y width height} of every item, separated by {@code ;}.
+ */
+public final class Main {
+
+    // maximum number of values per item of text input
+    private static final int MAX_VALUES = 9;
+    // maximum length of a binary record
+    static final int MAX_RECORD_BYTES = 1 << 28;
+
+    public static void main(String[] args) throws IOException {
+        int status = run(args, System.in, new FileOutputStream(FileDescriptor.out), System.err);
+        if(status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /**
+     * Runs the tool with given arguments and streams, returns the exit status: 0 on success, 1 on
+     * malformed input and 2 on invalid arguments
+     */
+    static int run(String[] args, InputStream stdin, OutputStream stdout, PrintStream stderr) throws IOException {
+        boolean text = false;
+        String file = null;
+        for (String arg : args) {
+            switch (arg) {
+                case "--text":
+                    text = true;
+                    break;
+                case "--binary":
+                    text = false;
+                    break;
+                default:
+                    if(arg.startsWith("--") || file != null) {
+                        stderr.println("Usage: layout-cli [--text | --binary] [input file]");
+                        return 2;
+                    }
+                    file = arg;
+                    break;
+            }
+        }
+
+        LayoutContext ctx = new LayoutContext();
+        OutputStream out = new BufferedOutputStream(stdout, 1 << 16);
+        try (InputStream in = new BufferedInputStream(file != null ? new FileInputStream(file) : stdin, 1 << 16)) {
+            if(text) {
+                runText(ctx, in, out);
+            } else {
+                runBinary(ctx, in, out);
+            }
+        } catch (EOFException | RuntimeException e) {
+            // anything thrown by parsing or by layout of a tree built from the input is blamed on the input
+            stderr.println("Malformed input: " + e);
+            return 1;
+        } finally {
+            // results of the trees before a malformed one are still written
+            out.flush();
+        }
+        return 0;
+    }
+
+    /**
+     * Lays out every record of binary input, returns the number of records
+     */
+    static long runBinary(LayoutContext ctx, InputStream in, OutputStream out) throws IOException {
+        byte[] trace = new byte[256];
+        byte[] rects = new byte[256];
+        ByteBuffer header = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        long trees = 0;
+        for(;;) {
+            if(!readFully(in, header.array(), 4, true)) return trees;
+            int length = header.getInt(0);
+            if(length < 0) {
+                throw new IllegalArgumentException("negative length of record " + trees);
+            }
+            if(length > MAX_RECORD_BYTES) {
+                throw new IllegalArgumentException("length of record " + trees + " exceeds " + MAX_RECORD_BYTES + " bytes: " + length);
+            }
+            trace = readRecord(in, trace, length);
+
+            Layout.layResetContext(ctx);
+            LayoutRecorder.replay(ctx, trace, 0, length);
+            Layout.layRunContext(ctx);
+
+            int count = Layout.layItemsCount(ctx);
+            int bytes = 4 + count * 16;
+            if(rects.length < bytes) {
+                rects = new byte[Math.max(bytes, rects.length * 2)];
+            }
+            ByteBuffer dst = ByteBuffer.wrap(rects).order(ByteOrder.LITTLE_ENDIAN);
+            dst.putInt(count);
+            for(int i = 0; i < count; i++) {
+                dst.putFloat(Layout.layGetRectX(ctx, i));
+                dst.putFloat(Layout.layGetRectY(ctx, i));
+                dst.putFloat(Layout.layGetRectWidth(ctx, i));
+                dst.putFloat(Layout.layGetRectHeight(ctx, i));
+            }
+            out.write(rects, 0, bytes);
+            trees++;
+        }
+    }
+
+    /**
+     * Lays out every line of text input, returns the number of lines
+     */
+    static long runText(LayoutContext ctx, InputStream in, OutputStream out) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        StringBuilder sb = new StringBuilder();
+        long trees = 0;
+        String line;
+        try {
+            while ((line = reader.readLine()) != null) {
+                Layout.layResetContext(ctx);
+                try {
+                    parseTree(ctx, line);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("line " + (trees + 1) + ": " + e.getMessage(), e);
+                }
+                Layout.layRunContext(ctx);
+
+                sb.setLength(0);
+                int count = Layout.layItemsCount(ctx);
+                for(int i = 0; i < count; i++) {
+                    if(i > 0) sb.append(';');
+                    sb.append(Layout.layGetRectX(ctx, i)).append(' ')
+                            .append(Layout.layGetRectY(ctx, i)).append(' ')
+                            .append(Layout.layGetRectWidth(ctx, i)).append(' ')
+                            .append(Layout.layGetRectHeight(ctx, i));
+                }
+                sb.append('\n');
+                writer.append(sb);
+                trees++;
+            }
+        } finally {
+            writer.flush();
+        }
+        return trees;
+    }
+
+    static void parseTree(LayoutContext ctx, String line) {
+        // start and end of every value of an item
+        final int[] bounds = new int[MAX_VALUES * 2];
+        int pos = 0;
+        final int end = line.length();
+        while (pos < end) {
+            int itemEnd = line.indexOf(';', pos);
+            if(itemEnd < 0) itemEnd = end;
+            parseItem(ctx, line, pos, itemEnd, bounds);
+            pos = itemEnd + 1;
+        }
+    }
+
+    private static void parseItem(LayoutContext ctx, String line, int start, int end, int[] bounds) {
+        int values = 0;
+        int pos = start;
+        for(;;) {
+            while (pos < end && Character.isWhitespace(line.charAt(pos))) pos++;
+            if(pos == end) break;
+            int valueEnd = pos;
+            while (valueEnd < end && !Character.isWhitespace(line.charAt(valueEnd))) valueEnd++;
+            if(values == MAX_VALUES) {
+                throw new IllegalArgumentException("expected 3, 4, 5 or 9 values per item, given more than " + MAX_VALUES);
+            }
+            bounds[values * 2] = pos;
+            bounds[values * 2 + 1] = valueEnd;
+            values++;
+            pos = valueEnd;
+        }
+        if(values != 3 && values != 4 && values != 5 && values != 9) {
+            throw new IllegalArgumentException("expected 3, 4, 5 or 9 values per item, given: " + values);
+        }
+        int item = Layout.layItem(ctx);
+        int parent = Integer.parseInt(line, bounds[0], bounds[1], 10);
+        if(item > 0) {
+            if(parent < 0 || parent >= item) {
+                throw new IllegalArgumentException("item " + item + " has invalid parent " + parent);
+            }
+            Layout.layInsert(ctx, parent, item);
+        }
+        Layout.laySetSize(ctx, item, parseFloat(line, bounds, 1), parseFloat(line, bounds, 2));
+        if(values > 3) {
+            //noinspection MagicConstant
+            Layout.laySetContain(ctx, item, parseFlags(line, bounds, 3, Layout.LAY_ITEM_BOX_MASK));
+        }
+        if(values > 4) {
+            //noinspection MagicConstant
+            Layout.laySetBehave(ctx, item, parseFlags(line, bounds, 4, Layout.LAY_ITEM_LAYOUT_MASK));
+        }
+        if(values > 5) {
+            Layout.laySetMargins(ctx, item, parseFloat(line, bounds, 5), parseFloat(line, bounds, 6),
+                    parseFloat(line, bounds, 7), parseFloat(line, bounds, 8));
+        }
+    }
+
+    private static float parseFloat(String line, int[] bounds, int value) {
+        return Float.parseFloat(line.substring(bounds[value * 2], bounds[value * 2 + 1]));
+    }
+
+    /**
+     * Parses decimal or 0x prefixed hex flags, which must only have bits of given mask
+     */
+    private static int parseFlags(String line, int[] bounds, int value, int mask) {
+        final int start = bounds[value * 2];
+        final int end = bounds[value * 2 + 1];
+        final int flags;
+        if(end - start > 2 && line.charAt(start) == '0' && (line.charAt(start + 1) == 'x' || line.charAt(start + 1) == 'X')) {
+            flags = Integer.parseUnsignedInt(line, start + 2, end, 16);
+        } else {
+            flags = Integer.parseInt(line, start, end, 10);
+        }
+        if((flags & ~mask) != 0) {
+            throw new IllegalArgumentException("invalid flags " + line.substring(start, end) + ", allowed bits are 0x" + Integer.toHexString(mask));
+        }
+        return flags;
+    }
+
+    /**
+     * Reads a record of given length into the buffer, growing it only as the data arrives, so that
+     * a bogus length doesn't take memory before the input proves it. Returns the buffer.
+     */
+    private static byte[] readRecord(InputStream in, byte[] dst, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            if(read == dst.length) {
+                dst = Arrays.copyOf(dst, (int) Math.min(length, dst.length * 2L));
+            }
+            int n = in.read(dst, read, Math.min(length, dst.length) - read);
+            if(n < 0) {
+                throw new EOFException("Unexpected end of input");
+            }
+            read += n;
+        }
+        return dst;
+    }
+
+    /**
+     * Reads exactly given number of bytes. Returns false if the stream ends before the first byte
+     * and that is allowed, throws if it ends in the middle.
+     */
+    private static boolean readFully(InputStream in, byte[] dst, int length, boolean allowEnd) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int n = in.read(dst, read, length - read);
+            if(n < 0) {
+                if(read == 0 && allowEnd) return false;
+                throw new EOFException("Unexpected end of input");
+            }
+            read += n;
+        }
+        return true;
+    }
+}
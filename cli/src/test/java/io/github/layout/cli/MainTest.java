@@ -0,0 +1,147 @@
+package io.github.layout.cli;
+
+import io.github.layout.LayoutContext;
+import io.github.layout.LayoutRecorder;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static io.github.layout.LayoutBoxFlags.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MainTest {
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+    private int run(byte[] input, String... args) throws IOException {
+        return Main.run(args, new ByteArrayInputStream(input), out, new PrintStream(err, true, "UTF-8"));
+    }
+
+    private int runText(String input) throws IOException {
+        return run(input.getBytes(StandardCharsets.UTF_8), "--text");
+    }
+
+    private String output() {
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void text1() throws IOException {
+        assertEquals(0, runText("0 100 50 0x2;0 30 20\n0 40 40;0 10 10 0 0 1 2 3 4\n"));
+        assertEquals("0.0 0.0 100.0 50.0;35.0 15.0 30.0 20.0\n"
+                + "0.0 0.0 40.0 40.0;13.0 13.0 10.0 10.0\n", output());
+        assertEquals(0, err.size());
+    }
+
+    @Test
+    public void textMalformed1() throws IOException {
+        String[] malformed = {
+                "0 100",
+                "0 100 50 2 8 1",
+                "0 100 50;5 10 10",
+                "0 100 50;0 ten 10",
+                "0 100 50 0xZZ",
+                "0 100 50 0 0 0 0 0 0 0",
+                // internal flags of items
+                "0 100 100 0x400",
+                "0 100 100 2;0 10 10 0 0x7fffffff",
+        };
+        for (String line : malformed) {
+            out.reset();
+            err.reset();
+            assertEquals(1, runText("0 10 10\n" + line + "\n0 10 10\n"), line);
+            // trees before the malformed one are still written
+            assertEquals("0.0 0.0 10.0 10.0\n", output(), line);
+            assertTrue(err.size() > 0, line);
+        }
+    }
+
+    @Test
+    public void binary1() throws IOException {
+        LayoutContext ctx = new LayoutContext();
+        LayoutRecorder recorder = new LayoutRecorder();
+        ctx.setRecorder(recorder);
+        int root = ctx.item();
+        ctx.setSize(root, 100, 50);
+        ctx.setContain(root, LAY_ROW);
+        int child = ctx.item();
+        ctx.setSize(child, 30, 20);
+        ctx.insert(root, child);
+        ctx.setRecorder(null);
+
+        byte[] trace = recorder.toByteArray();
+        assertEquals(0, run(frame(trace, trace), "--binary"));
+
+        ByteBuffer result = ByteBuffer.wrap(out.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        for (int tree = 0; tree < 2; tree++) {
+            assertEquals(2, result.getInt());
+            float[] expected = { 0, 0, 100, 50, 35, 15, 30, 20 };
+            for (float value : expected) {
+                assertEquals(value, result.getFloat());
+            }
+        }
+        assertFalse(result.hasRemaining());
+    }
+
+    @Test
+    public void binaryMalformed1() throws IOException {
+        LayoutContext ctx = new LayoutContext();
+        LayoutRecorder recorder = new LayoutRecorder();
+        ctx.setRecorder(recorder);
+        ctx.item();
+        ctx.item();
+        ctx.insert(0, 1);
+        byte[] trace = recorder.toByteArray();
+        // insertion of item 2, which doesn't exist
+        byte[] invalidItem = trace.clone();
+        invalidItem[invalidItem.length - 1] = 2;
+
+        byte[][] malformed = {
+                frame(trace, invalidItem),
+                frame(trace, new byte[] { 1, 2, 3 }),
+                // truncated record
+                Arrays.copyOf(frame(trace, trace), 4 + trace.length + 6),
+                // truncated header
+                Arrays.copyOf(frame(trace, trace), 4 + trace.length + 2),
+                // record longer than the limit
+                ByteBuffer.allocate(4 + trace.length + 4).order(ByteOrder.LITTLE_ENDIAN)
+                        .putInt(trace.length).put(trace).putInt(Main.MAX_RECORD_BYTES + 1).array(),
+                // record length far beyond the actual input
+                ByteBuffer.allocate(4 + trace.length + 4).order(ByteOrder.LITTLE_ENDIAN)
+                        .putInt(trace.length).put(trace).putInt(Main.MAX_RECORD_BYTES).array(),
+        };
+        for (byte[] input : malformed) {
+            out.reset();
+            assertEquals(1, run(input));
+            assertEquals(4 + 2 * 16, out.size());
+        }
+    }
+
+    @Test
+    public void arguments1() throws IOException {
+        assertEquals(2, run(new byte[0], "--json"));
+        assertEquals(2, run(new byte[0], "a", "b"));
+        assertEquals(0, run(new byte[0], "--binary"));
+        assertEquals(0, out.size());
+    }
+
+    private static byte[] frame(byte[]... records) {
+        int length = 0;
+        for (byte[] record : records) {
+            length += 4 + record.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        for (byte[] record : records) {
+            buffer.putInt(record.length).put(record);
+        }
+        return buffer.array();
+    }
+}
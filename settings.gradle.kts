@@ -1,2 +1,3 @@
 rootProject.name = "layout-java"
 include("demo")
+include("cli")
@@ -0,0 +1,124 @@
+package io.github.layout;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static io.github.layout.LayoutBoxFlags.*;
+import static io.github.layout.LayoutFlags.*;
+
+/**
+ * Measures the per dimension passes of lay_run_context, lay_calc_size and lay_arrange, separately
+ * for both dimensions, which is where accessors of item and rect components by dimension are used.
+ * horizontalSwitch and verticalSwitch run the same passes from {@link SwitchAxisKernels}, which use
+ * the index-based accessors switching on the index, so that the effect of the accessors is measured
+ * within a single build.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AxisKernelBenchmark {
+
+    @Param({"20", "200"})
+    public int fanOut;
+
+    private LayoutContext ctx;
+    private int frame;
+
+    @Setup
+    public void setup() {
+        ctx = new LayoutContext();
+        int root = ctx.item();
+        ctx.setSize(root, 1920, 1080);
+        ctx.setContain(root, LAY_COLUMN);
+        for (int i = 0; i < fanOut; i++) {
+            int row = ctx.item();
+            ctx.setBehave(row, LAY_HFILL);
+            ctx.setContain(row, i % 2 == 0 ? LAY_ROW | LAY_JUSTIFY : LAY_ROW);
+            ctx.insert(root, row);
+            for (int j = 0; j < fanOut; j++) {
+                int cell = ctx.item();
+                ctx.setSize(cell, 8, 16);
+                ctx.setMargins(cell, 1, 1, 1, 1);
+                ctx.setBehave(cell, j % 4 == 0 ? LAY_HFILL : LAY_VCENTER);
+                ctx.insert(row, cell);
+                if(j % 8 == 0) {
+                    int badge = ctx.item();
+                    ctx.setSize(badge, 4, 4);
+                    ctx.setBehave(badge, LAY_RIGHT | LAY_BOTTOM);
+                    ctx.insert(cell, badge);
+                }
+            }
+        }
+        ctx.runContext();
+        float[] expected = rects();
+        for (LayoutContext.LayoutRect rect : ctx.rects) {
+            rect.x = rect.y = rect.w = rect.h = 0;
+        }
+        for (int dim = 0; dim < 2; dim++) {
+            SwitchAxisKernels.layCalcSize(ctx, 0, dim);
+            SwitchAxisKernels.layArrange(ctx, 0, dim);
+        }
+        if(!Arrays.equals(expected, rects())) {
+            throw new IllegalStateException("SwitchAxisKernels differs from Layout, regenerate it");
+        }
+    }
+
+    @Benchmark
+    public void runContext(Blackhole bh) {
+        ctx.setSize(0, nextWidth(), 1080);
+        ctx.runContext();
+        bh.consume(ctx.getRectWidth(ctx.itemsCount() - 1));
+    }
+
+    @Benchmark
+    public void horizontal(Blackhole bh) {
+        ctx.setSize(0, nextWidth(), 1080);
+        Layout.layCalcSize(ctx, 0, 0);
+        Layout.layArrange(ctx, 0, 0);
+        bh.consume(ctx.getRectWidth(ctx.itemsCount() - 1));
+    }
+
+    @Benchmark
+    public void vertical(Blackhole bh) {
+        Layout.layCalcSize(ctx, 0, 1);
+        Layout.layArrange(ctx, 0, 1);
+        bh.consume(ctx.getRectHeight(ctx.itemsCount() - 1));
+    }
+
+    @Benchmark
+    public void horizontalSwitch(Blackhole bh) {
+        ctx.setSize(0, nextWidth(), 1080);
+        SwitchAxisKernels.layCalcSize(ctx, 0, 0);
+        SwitchAxisKernels.layArrange(ctx, 0, 0);
+        bh.consume(ctx.getRectWidth(ctx.itemsCount() - 1));
+    }
+
+    @Benchmark
+    public void verticalSwitch(Blackhole bh) {
+        SwitchAxisKernels.layCalcSize(ctx, 0, 1);
+        SwitchAxisKernels.layArrange(ctx, 0, 1);
+        bh.consume(ctx.getRectHeight(ctx.itemsCount() - 1));
+    }
+
+    private float[] rects() {
+        float[] rects = new float[ctx.itemsCount() * 4];
+        for (int i = 0; i < ctx.itemsCount(); i++) {
+            rects[i * 4] = ctx.getRectX(i);
+            rects[i * 4 + 1] = ctx.getRectY(i);
+            rects[i * 4 + 2] = ctx.getRectWidth(i);
+            rects[i * 4 + 3] = ctx.getRectHeight(i);
+        }
+        return rects;
+    }
+
+    private float nextWidth() {
+        frame = (frame + 1) & 255;
+        return 1280 + frame * 2;
+    }
+}
@@ -0,0 +1,77 @@
+package io.github.layout;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static io.github.layout.LayoutBoxFlags.*;
+import static io.github.layout.LayoutFlags.*;
+
+/**
+ * Throughput of laying out many independent documents with {@link LayoutBatchExecutor}
+ * depending on the number of worker threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchLayoutBenchmark {
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param("256")
+    public int documents;
+
+    private ForkJoinPool pool;
+    private LayoutBatchExecutor executor;
+    private List<LayoutContext> contexts;
+
+    @Setup
+    public void setup() {
+        pool = new ForkJoinPool(threads);
+        executor = new LayoutBatchExecutor(pool, threads);
+        contexts = new ArrayList<>();
+        Random rand = new Random(0xCAFEBABE);
+        for (int i = 0; i < documents; i++) {
+            // document sizes vary a lot, as they do in practice
+            contexts.add(document(50 + rand.nextInt(5000), rand));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public void runAll() {
+        executor.runAll(contexts).join();
+    }
+
+    private static LayoutContext document(int paragraphs, Random rand) {
+        LayoutContext ctx = new LayoutContext();
+        int root = ctx.item();
+        ctx.setSize(root, 800, 0);
+        ctx.setContain(root, LAY_COLUMN | LAY_START);
+        for (int i = 0; i < paragraphs; i++) {
+            int paragraph = ctx.item();
+            ctx.setBehave(paragraph, LAY_HFILL);
+            ctx.setContain(paragraph, LAY_ROW | LAY_WRAP | LAY_START);
+            ctx.insert(root, paragraph);
+            for (int j = 0; j < 8; j++) {
+                int word = ctx.item();
+                ctx.setSize(word, 20 + rand.nextInt(80), 16);
+                ctx.setMargins(word, 0, 0, 4, 0);
+                ctx.insert(paragraph, word);
+            }
+        }
+        return ctx;
+    }
+}
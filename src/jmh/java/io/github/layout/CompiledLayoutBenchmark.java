@@ -0,0 +1,69 @@
+package io.github.layout;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import static io.github.layout.LayoutBoxFlags.*;
+import static io.github.layout.LayoutFlags.*;
+
+/**
+ * Compares running a structurally fixed tree with changing root size the usual way
+ * and with a program compiled from it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompiledLayoutBenchmark {
+
+    @Param({"10", "50"})
+    public int fanOut;
+
+    private LayoutContext ctx;
+    private LayoutProgram program;
+    private int frame;
+
+    @Setup
+    public void setup() {
+        ctx = new LayoutContext();
+        int root = ctx.item();
+        ctx.setSize(root, 1920, 1080);
+        ctx.setContain(root, LAY_COLUMN);
+        for (int i = 0; i < fanOut; i++) {
+            int row = ctx.item();
+            ctx.setBehave(row, LAY_HFILL);
+            ctx.setContain(row, LAY_ROW | LAY_JUSTIFY);
+            ctx.insert(root, row);
+            for (int j = 0; j < fanOut; j++) {
+                int cell = ctx.item();
+                ctx.setSize(cell, 16, 16);
+                ctx.setMargins(cell, 1, 1, 1, 1);
+                ctx.setBehave(cell, j % 4 == 0 ? LAY_HFILL : LAY_VCENTER);
+                ctx.insert(row, cell);
+            }
+        }
+        program = ctx.compile();
+    }
+
+    @Benchmark
+    public void interpreted(Blackhole bh) {
+        ctx.setSize(0, nextWidth(), 1080);
+        ctx.runContext();
+        bh.consume(ctx.getRectWidth(ctx.itemsCount() - 1));
+    }
+
+    @Benchmark
+    public void compiled(Blackhole bh) {
+        ctx.runCompiled(program, nextWidth(), 1080);
+        bh.consume(ctx.getRectWidth(ctx.itemsCount() - 1));
+    }
+
+    private float nextWidth() {
+        frame = (frame + 1) & 255;
+        return 1280 + frame * 2;
+    }
+}
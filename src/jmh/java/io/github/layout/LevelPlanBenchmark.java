@@ -0,0 +1,70 @@
+package io.github.layout;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static io.github.layout.LayoutBoxFlags.*;
+import static io.github.layout.LayoutFlags.*;
+
+/**
+ * Compares recursive layout of a wide tree with level by level runs, on one and on all cores.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LevelPlanBenchmark {
+
+    @Param({"10000", "100000"})
+    public int leaves;
+
+    private LayoutContext ctx;
+    private LayoutLevelPlan plan;
+
+    @Setup
+    public void setup() {
+        ctx = new LayoutContext();
+        int root = ctx.item();
+        ctx.setSize(root, 1920, 1080);
+        ctx.setContain(root, LAY_ROW);
+        for (int c = 0; c < 4; c++) {
+            int column = ctx.item();
+            ctx.setBehave(column, LAY_FILL);
+            ctx.setContain(column, LAY_COLUMN);
+            ctx.insert(root, column);
+            int prev = ctx.item();
+            ctx.insert(column, prev);
+            for (int i = 1; i < leaves / 4; i++) {
+                int leaf = ctx.item();
+                ctx.setSize(leaf, 0, 1);
+                ctx.setBehave(leaf, LAY_HFILL);
+                ctx.append(prev, leaf);
+                prev = leaf;
+            }
+        }
+        plan = ctx.buildLevelPlan();
+    }
+
+    @Benchmark
+    public void recursive(Blackhole bh) {
+        ctx.runContext();
+        bh.consume(ctx.getRectY(ctx.itemsCount() - 1));
+    }
+
+    @Benchmark
+    public void levels(Blackhole bh) {
+        ctx.runLevelPlan(plan);
+        bh.consume(ctx.getRectY(ctx.itemsCount() - 1));
+    }
+
+    @Benchmark
+    public void levelsParallel(Blackhole bh) {
+        ctx.runLevelPlan(plan, ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism());
+        bh.consume(ctx.getRectY(ctx.itemsCount() - 1));
+    }
+}
@@ -0,0 +1,81 @@
+package io.github.layout;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import static io.github.layout.LayoutBoxFlags.*;
+
+/**
+ * Measures tree building cost, which includes maintaining parent and previous sibling links,
+ * and upward navigation from every leaf of the tree.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NavigationBenchmark {
+
+    @Param({"10", "100"})
+    public int fanOut;
+
+    private LayoutContext ctx;
+
+    @Setup
+    public void setup() {
+        ctx = new LayoutContext();
+        build(ctx, fanOut);
+    }
+
+    @Benchmark
+    public void build(Blackhole bh) {
+        build(ctx, fanOut);
+        bh.consume(ctx.itemsCount());
+    }
+
+    @Benchmark
+    public void walkToRoot(Blackhole bh) {
+        int sum = 0;
+        for (int i = 0; i < ctx.itemsCount(); i++) {
+            sum += ctx.depth(i);
+        }
+        bh.consume(sum);
+    }
+
+    @Benchmark
+    public void walkSiblingsBackwards(Blackhole bh) {
+        int sum = 0;
+        for (int parent = 0; parent < ctx.itemsCount(); parent++) {
+            int child = ctx.lastChild(parent);
+            while (child != Layout.LAY_INVALID_ID) {
+                sum += child;
+                child = ctx.prevSibling(child);
+            }
+        }
+        bh.consume(sum);
+    }
+
+    /**
+     * Builds a tree three levels deep where every container has `fanOut` children
+     */
+    private static void build(LayoutContext ctx, int fanOut) {
+        ctx.resetContext();
+        int root = ctx.item();
+        ctx.setContain(root, LAY_COLUMN);
+        for (int i = 0; i < fanOut; i++) {
+            int row = ctx.item();
+            ctx.setContain(row, LAY_ROW);
+            ctx.insert(root, row);
+            int prev = ctx.item();
+            ctx.insert(row, prev);
+            for (int j = 1; j < fanOut; j++) {
+                int cell = ctx.item();
+                ctx.append(prev, cell);
+                prev = cell;
+            }
+        }
+    }
+}
@@ -0,0 +1,541 @@
+package io.github.layout;
+
+import io.github.layout.Layout.LayoutItem;
+import io.github.layout.Layout.LayoutLines;
+
+import static io.github.layout.Layout.*;
+import static io.github.layout.LayoutBoxFlags.*;
+import static io.github.layout.LayoutFlags.*;
+
+/**
+ * Baseline for {@link AxisKernelBenchmark}: copy of lay_calc_size and lay_arrange with their
+ * procedures, which read and write components of items and rects through the index-based
+ * accessors switching on the index, as they did before the accessors by dimension. Regenerate it
+ * from Layout when the procedures change, the benchmark checks that both give the same rects.
+ * Size cache is not supported.
+ */
+@SuppressWarnings("DuplicatedCode")
+final class SwitchAxisKernels {
+
+    private SwitchAxisKernels() {}
+
+    static float layCalcOverlayedSize(LayoutContext ctx, int item, int dim) {
+        LayoutItem pitem = layGetItem(ctx, item);
+        float needSize = 0;
+        int child = pitem.firstChild;
+        while (child != LAY_INVALID_ID) {
+            LayoutItem pchild = layGetItem(ctx, child);
+            LayoutContext.LayoutRect rect = ctx.rects[child];
+            // width = start margin + calculated margin + end margin
+            float childSize = rect.get(dim) + rect.get(2 + dim) + pchild.margins(2 + dim);
+            needSize = Math.max(needSize, childSize);
+            child = pchild.nextSibling;
+        }
+        return needSize;
+    }
+
+    static float layCalcStackedSize(LayoutContext ctx, int item, int dim) {
+        LayoutItem pitem = layGetItem(ctx, item);
+        // only rows and columns have gaps
+        final float gap = (pitem.flags & LAY_FLEX) != 0 ? pitem.gap() : 0F;
+        float needSize = 0;
+        int child = pitem.firstChild;
+        while (child != LAY_INVALID_ID) {
+            LayoutItem pchild = layGetItem(ctx, child);
+            LayoutContext.LayoutRect rect = ctx.rects[child];
+            if(gap != 0 && child != pitem.firstChild) {
+                needSize += gap;
+            }
+            needSize += rect.get(dim) + rect.get(2 + dim) + pchild.margins(2 + dim);
+            child = pchild.nextSibling;
+        }
+        return needSize;
+    }
+
+    static float layCalcWrappedOverlayedSize(LayoutContext ctx, int item, int dim) {
+        LayoutItem pitem = layGetItem(ctx, item);
+        final LayoutLines lines = pitem.lines;
+        int line = 1;
+        int lineStart = _lineStart(lines, line);
+        float needSize = 0F;
+        float needSize2 = 0F;
+        int child = pitem.firstChild;
+        while (child != LAY_INVALID_ID) {
+            LayoutItem pchild = layGetItem(ctx, child);
+            LayoutContext.LayoutRect rect = ctx.rects[child];
+            if(child == lineStart) {
+                needSize2 += needSize;
+                needSize2 += pitem.crossGap();
+                needSize = 0;
+                lineStart = _lineStart(lines, ++line);
+            }
+            float childSize = rect.get(dim) + rect.get(2 + dim) + pchild.margins(2 + dim);
+            needSize = Math.max(needSize, childSize);
+            child = pchild.nextSibling;
+        }
+        return needSize2 + needSize;
+    }
+
+    static float layCalcWrappedStackedSize(LayoutContext ctx, int item, int dim) {
+        LayoutItem pitem = layGetItem(ctx, item);
+        float needSize = 0F;
+        float needSize2 = 0F;
+        int child = pitem.firstChild;
+        while (child != LAY_INVALID_ID) {
+            LayoutItem pchild = layGetItem(ctx, child);
+            LayoutContext.LayoutRect rect = ctx.rects[child];
+            if((pchild.flags & LAY_BREAK) > 0) {
+                needSize2 = Math.max(needSize2, needSize);
+                needSize = 0F;
+            } else if(child != pitem.firstChild) {
+                needSize2 += pitem.gap();
+            }
+            needSize2 += rect.get(dim) + rect.get(2 + dim) + pchild.margins(2 + dim);
+            child = pchild.nextSibling;
+        }
+        return Math.max(needSize2, needSize);
+    }
+
+    static void layCalcSize(LayoutContext ctx, int item, int dim) {
+        int child = layGetItem(ctx, item).firstChild;
+        while (child != LAY_INVALID_ID) {
+            layCalcSize(ctx, child, dim);
+            child = layGetItem(ctx, child).nextSibling;
+        }
+        layCalcItemSize(ctx, item, dim);
+    }
+
+    /**
+     * Calculates size of a single item from already calculated sizes of its children
+     */
+    static void layCalcItemSize(LayoutContext ctx, int item, int dim) {
+        LayoutItem pitem = layGetItem(ctx, item);
+
+        final boolean wrapped = (pitem.flags & LAY_WRAP) != 0 && (pitem.flags & LAY_FLEX) != 0
+                && (pitem.flags & 1) == dim;
+        if(wrapped) {
+            pitem = layGetItemMut(ctx, item);
+            ctx.wrapSeen = true;
+            if(pitem.lines == null) {
+                pitem.lines = new LayoutLines();
+            }
+            LayoutLines lines = pitem.lines;
+            lines.inputsLength = 0;
+            lines.ensureInputs(1);
+            lines.inputs[lines.inputsLength++] = Float.floatToIntBits(pitem.gap());
+            int child = pitem.firstChild;
+            while (child != LAY_INVALID_ID) {
+                LayoutItem pchild = layGetItem(ctx, child);
+                _linesInputs(ctx, lines, child, pchild, dim);
+                child = pchild.nextSibling;
+            }
+        }
+
+        // Set the mutable rect output data to the starting input data
+        ctx.rects[item].set(dim, pitem.margins(dim));
+
+        // If we have an explicit input size, just set our output size (which other
+        // calcSize and arrange procedures will us) to it.
+        if (pitem.size(dim) != 0) {
+            // however, an item might be allowed to grow, in which case should go on and compute the size
+            if ((dim == 0 && (pitem.flags & LAY_HGROW) != LAY_HGROW)
+                    || (dim == 1 && (pitem.flags & LAY_VGROW) != LAY_VGROW)) {
+                ctx.rects[item].set(2 + dim, pitem.size(dim));
+                return;
+            }
+        }
+
+        // Calculate our size based on children items. Note that we've already
+        // called calcSize on our children at this point.
+        float calSize;
+        switch (pitem.flags & LAY_ITEM_BOX_MODEL_MASK) {
+            case LAY_LAYOUT | LAY_WRAP:
+                // flex model
+                if (dim > 0) {
+                    calSize = layCalcStackedSize(ctx, item, 1);
+                } else {
+                    calSize = layCalcOverlayedSize(ctx, item, 0);
+                }
+                break;
+            case LAY_ROW | LAY_WRAP:
+                // flex model
+                if(dim == 0) { // direction
+                    calSize = layCalcWrappedStackedSize(ctx, item, 0);
+                } else {
+                    calSize = layCalcWrappedOverlayedSize(ctx, item, 1);
+                }
+                break;
+            case LAY_COLUMN:
+            case LAY_ROW:
+                // flex model
+                if((pitem.flags & 1) == dim) { // direction
+                    calSize = layCalcStackedSize(ctx, item, dim);
+                } else {
+                    calSize = layCalcOverlayedSize(ctx, item, dim);
+                }
+                break;
+            default:
+                // layout model
+                calSize = layCalcOverlayedSize(ctx, item, dim);
+                break;
+        }
+
+        // Children are placed within padding
+        if(pitem.spacing != null) {
+            calSize += pitem.padding(dim) + pitem.padding(2 + dim);
+        }
+
+        // Item shouldn't shrink when limited by size
+        if(pitem.size(dim) != 0) {
+            if (dim == 0 && (pitem.flags & LAY_HGROW) == LAY_HGROW) {
+                calSize = Math.max(pitem.size(dim), calSize);
+            }
+            if (dim == 1 && (pitem.flags & LAY_VGROW) == LAY_VGROW) {
+                calSize = Math.max(pitem.size(dim), calSize);
+            }
+        }
+
+        // Set our output data size. Will be used by parent calc_size procedures.,
+        // and by arrange procedures.
+        ctx.rects[item].set(2 + dim, calSize);
+    }
+
+    static void layArrangeStacked(LayoutContext ctx, int item, int dim, boolean wrap) {
+        // wrapped containers update their lines
+        LayoutItem pitem = wrap ? layGetItemMut(ctx, item) : layGetItem(ctx, item);
+
+        final int itemFlags = pitem.flags;
+        LayoutContext.LayoutRect rect = ctx.rects[item];
+        final float start = rect.get(dim) + pitem.padding(dim);
+        float space = rect.get(2 + dim) - pitem.padding(dim) - pitem.padding(2 + dim);
+        final float gap = pitem.gap();
+
+        float maxX2 = start + space;
+
+        // lines can be reused if neither container size nor any of its children changed
+        final LayoutLines lines = wrap ? pitem.lines : null;
+        final boolean cached = lines != null && lines.valid
+                && lines.space == space && lines.inputsMatch();
+        if(lines != null && !cached) {
+            lines.valid = false;
+            lines.count = 0;
+        }
+
+        int line = 0;
+        int startChild = pitem.firstChild;
+        while (startChild != LAY_INVALID_ID) {
+            float used = 0F;
+            float sumOfFillers = 0; // sum of grow factors of fillers
+            int squeezedCount = 0; // count of squeezable elements
+            int total = 0;
+            boolean hardbreak = false;
+            int child;
+            int endChild = LAY_INVALID_ID;
+
+            if(cached) {
+                used = lines.used[line];
+                sumOfFillers = lines.fillers[line];
+                squeezedCount = lines.squeezed[line];
+                total = lines.total[line];
+                endChild = _lineStart(lines, line + 1);
+                hardbreak = endChild != LAY_INVALID_ID && (layGetItem(ctx, endChild).flags & LAY_BREAK) == LAY_BREAK;
+            } else {
+                // first pass: count items that need to be expanded,
+                // and the space that is used
+                child = startChild;
+                while (child != LAY_INVALID_ID) {
+                    LayoutItem pchild = layGetItem(ctx, child);
+                    final int childFlags = pchild.flags;
+                    final int flags = (childFlags & LAY_ITEM_LAYOUT_MASK) >> dim;
+                    final int fflags = (childFlags & LAY_ITEM_FIXED_MASK) >> dim;
+                    LayoutContext.LayoutRect childRect = ctx.rects[child];
+                    float extend = used;
+                    if(total > 0) {
+                        extend += gap;
+                    }
+                    if((flags & LAY_HFILL) == LAY_HFILL) {
+                        sumOfFillers += (pchild.flags & LAY_ITEM_GROW_SET) == LAY_ITEM_GROW_SET ? pchild.grow : 1F;
+                        extend += childRect.get(dim) + pchild.margins(2 + dim);
+                    } else {
+                        if((fflags & LAY_ITEM_HFIXED) != LAY_ITEM_HFIXED) {
+                            ++squeezedCount;
+                        }
+                        extend += childRect.get(dim) + childRect.get(2 + dim) + pchild.margins(2 + dim);
+                    }
+                    // wrap on end of line or manual flag
+                    if(wrap && (total > 0 && ((extend > space) || (childFlags & LAY_BREAK) > 0))) {
+                        endChild = child;
+                        hardbreak = (childFlags & LAY_BREAK) == LAY_BREAK;
+                        break;
+                    } else {
+                        used = extend;
+                        child = pchild.nextSibling;
+                    }
+                    ++total;
+                }
+                if(lines != null) {
+                    // remember the line for subsequent passes and runs
+                    lines.add(startChild, used, sumOfFillers, squeezedCount, total);
+                }
+            }
+            line++;
+
+            float extraSpace = space - used;
+            float spacer = 0F;
+            float extraMargin = 0F;
+            float eater = 0F;
+
+            if (extraSpace > 0) {
+                if(sumOfFillers <= 0F && total > 0) {
+                    switch (itemFlags & LAY_JUSTIFY) {
+                        case LAY_JUSTIFY:
+                            // justify when not wrapping or not in last line,
+                            // or not manually breaking
+                            if(!wrap || ((endChild != LAY_INVALID_ID) && !hardbreak)) {
+                                spacer = extraSpace / (float)(total - 1);
+                            }
+                            break;
+                        case LAY_START:
+                            break;
+                        case LAY_END:
+                            extraMargin = extraSpace;
+                            break;
+                        default:
+                            extraMargin = extraSpace / 2.0F;
+                            break;
+                    }
+                }
+            } else if(!wrap && (squeezedCount > 0)) {
+                eater = extraSpace / (float)squeezedCount;
+            }
+
+            // distribute width among items
+            float x = start;
+            float x1;
+            // second pass: distribute and rescale
+            child = startChild;
+            while (child != endChild) {
+                float ix0, ix1;
+                LayoutItem pchild = layGetItem(ctx, child);
+                final int childFlags = pchild.flags;
+                final int flags = (childFlags & LAY_ITEM_LAYOUT_MASK) >> dim;
+                final int fflags = (childFlags & LAY_ITEM_FIXED_MASK) >> dim;
+                LayoutContext.LayoutRect childRect = ctx.rects[child];
+
+                x += childRect.get(dim) + extraMargin;
+                if((flags & LAY_HFILL) == LAY_HFILL) { // grow
+                    x1 = x + extraSpace * ((pchild.flags & LAY_ITEM_GROW_SET) == LAY_ITEM_GROW_SET ? pchild.grow : 1F) / sumOfFillers;
+                } else if((fflags & LAY_ITEM_HFIXED) == LAY_ITEM_HFIXED) {
+                    x1 = x + childRect.get(2 + dim);
+                } else { // squeeze
+                    x1 = x + Math.max(0.0F, childRect.get(2 + dim) + eater);
+                }
+
+                ix0 = x;
+                if(wrap) {
+                    ix1 = Math.min(maxX2 - pchild.margins(2 + dim), x1);
+                } else {
+                    ix1 = x1;
+                }
+
+                childRect.set(dim, ix0); // pos
+                childRect.set(2 + dim, ix1 - ix0); // size
+                x = x1 + pchild.margins(2 + dim) + gap;
+                child = pchild.nextSibling;
+                extraMargin = spacer;
+            }
+
+            startChild = endChild;
+        }
+
+        if(lines != null && !cached) {
+            lines.valid = true;
+            lines.space = space;
+            lines.storeInputs();
+        }
+    }
+
+    /**
+     * Returns first child of a line with given index, or LAY_INVALID_ID if there's no such line
+     */
+    private static int _lineStart(LayoutLines lines, int line) {
+        return lines != null && line < lines.count ? lines.starts[line] : LAY_INVALID_ID;
+    }
+
+    /**
+     * Appends everything that line breaking of a child depends on to the inputs of the lines
+     */
+    private static void _linesInputs(LayoutContext ctx, LayoutLines lines, int child, LayoutItem pchild, int dim) {
+        LayoutContext.LayoutRect rect = ctx.rects[child];
+        lines.ensureInputs(LINES_INPUTS_PER_CHILD);
+        final int[] inputs = lines.inputs;
+        int i = lines.inputsLength;
+        inputs[i++] = child;
+        inputs[i++] = pchild.flags & (LAY_ITEM_LAYOUT_MASK | LAY_ITEM_FIXED_MASK | LAY_ITEM_GROW_SET);
+        inputs[i++] = Float.floatToIntBits(pchild.grow);
+        inputs[i++] = Float.floatToIntBits(rect.get(dim));
+        inputs[i++] = Float.floatToIntBits(rect.get(2 + dim));
+        inputs[i++] = Float.floatToIntBits(pchild.margins(2 + dim));
+        lines.inputsLength = i;
+    }
+
+    static void layArrangeOverlay(LayoutContext ctx, int item, int dim) {
+        LayoutItem pitem = layGetItem(ctx, item);
+        LayoutContext.LayoutRect rect = ctx.rects[item];
+        float offset = rect.get(dim) + pitem.padding(dim);
+        float space = rect.get(2 + dim) - pitem.padding(dim) - pitem.padding(2 + dim);
+
+        int child = pitem.firstChild;
+        while (child != LAY_INVALID_ID) {
+            LayoutItem pchild = layGetItem(ctx, child);
+            final int bFlags = (pchild.flags & LAY_ITEM_LAYOUT_MASK) >> dim;
+            LayoutContext.LayoutRect childRect = ctx.rects[child];
+
+            switch (bFlags & LAY_HFILL) {
+                case LAY_HCENTER:
+                    float centerSize = childRect.get(dim) + (space - childRect.get(2 + dim)) / 2F - pchild.margins(2 + dim);
+                    childRect.set(dim, centerSize);
+                    break;
+                case LAY_RIGHT:
+                    float rightSize = childRect.get(dim) + space - childRect.get(2 + dim) - pchild.margins(dim) - pchild.margins(2 + dim);
+                    childRect.set(dim, rightSize);
+                    break;
+                case LAY_HFILL:
+                    float fillSize = Math.max(0, space - childRect.get(dim) - pchild.margins(2 + dim));
+                    childRect.set(2 + dim, fillSize);
+                    break;
+                default:
+                    break;
+            }
+
+            childRect.set(dim, childRect.get(dim) + offset);
+            child = pchild.nextSibling;
+        }
+    }
+
+    static void layArrangeOverlaySqueezedRange(LayoutContext ctx, int dim, int startItem, int endItem, float offset, float space) {
+        int item = startItem;
+        while (item != endItem) {
+            LayoutItem pitem = layGetItem(ctx, item);
+            final int bFlags = (pitem.flags & LAY_ITEM_LAYOUT_MASK) >> dim;
+            LayoutContext.LayoutRect rect = ctx.rects[item];
+            float minSize = Math.max(0, space - rect.get(dim) - pitem.margins(2 + dim));
+            switch (bFlags & LAY_HFILL) {
+                case LAY_HCENTER:
+                    rect.set(2 + dim, Math.min(rect.get(2 + dim), minSize));
+                    rect.set(dim, rect.get(dim) + (space - rect.get(2 + dim)) / 2F - pitem.margins(2 + dim));
+                    break;
+                case LAY_RIGHT:
+                    rect.set(2 + dim, Math.min(rect.get(2 + dim), minSize));
+                    rect.set(dim, space - rect.get(2 + dim) - pitem.margins(2 + dim));
+                    break;
+                case LAY_HFILL:
+                    rect.set(2 + dim, minSize);
+                    break;
+                default:
+                    rect.set(2 + dim, Math.min(rect.get(2 + dim), minSize));
+                    break;
+            }
+
+            rect.set(dim, rect.get(dim) + offset);
+            item = pitem.nextSibling;
+        }
+    }
+
+    static float layArrangeWrappedOverlaySqueezed(LayoutContext ctx, int item, int dim) {
+        LayoutItem pitem = layGetItem(ctx, item);
+        final LayoutLines lines = pitem.lines;
+        int line = 1;
+        int lineStart = _lineStart(lines, line);
+        float offset = ctx.rects[item].get(dim) + pitem.padding(dim);
+        float needSize = 0F;
+        int child = pitem.firstChild;
+        int startChild = child;
+        while (child != LAY_INVALID_ID) {
+            LayoutItem pchild = layGetItem(ctx, child);
+            if(child == lineStart) {
+                layArrangeOverlaySqueezedRange(ctx, dim, startChild, child, offset, needSize);
+                offset += needSize;
+                offset += pitem.crossGap();
+                startChild = child;
+                needSize = 0F;
+                lineStart = _lineStart(lines, ++line);
+            }
+            LayoutContext.LayoutRect rect = ctx.rects[child];
+            float childSize = rect.get(dim) + rect.get(2 + dim) + pchild.margins(2 + dim);
+            needSize = Math.max(needSize, childSize);
+            child = pchild.nextSibling;
+        }
+        layArrangeOverlaySqueezedRange(ctx, dim, startChild, LAY_INVALID_ID, offset, needSize);
+        offset += needSize;
+        return offset;
+    }
+
+    static void layArrange(LayoutContext ctx, int item, int dim) {
+        layArrangeItem(ctx, item, dim);
+        int child = layGetItem(ctx, item).firstChild;
+        while (child != LAY_INVALID_ID) {
+            layArrange(ctx, child, dim);
+            LayoutItem pchild = layGetItem(ctx, child);
+            child = pchild.nextSibling;
+        }
+
+        // vertical pass is the last one, rects of the whole subtree are final at this point
+        if(dim == 1 && ctx.bounds != null) {
+            layUpdateBounds(ctx, item);
+        }
+    }
+
+    /**
+     * Arranges children of a single item within its already arranged rect
+     */
+    static void layArrangeItem(LayoutContext ctx, int item, int dim) {
+        LayoutItem pitem = layGetItem(ctx, item);
+
+        final int flags = pitem.flags;
+
+        switch (flags & LAY_ITEM_BOX_MODEL_MASK) {
+            case LAY_COLUMN | LAY_WRAP:
+                if(dim != 0) {
+                    layArrangeStacked(ctx, item, 1, true);
+                    float offset = layArrangeWrappedOverlaySqueezed(ctx, item, 0) + pitem.padding(2);
+                    ctx.rects[item].set(2, offset - ctx.rects[item].get(0));
+                }
+                break;
+            case LAY_ROW | LAY_WRAP:
+                if(dim == 0) {
+                    layArrangeStacked(ctx, item, 0, true);
+                } else {
+                    // discard return value
+                    layArrangeWrappedOverlaySqueezed(ctx, item, 1);
+                }
+                break;
+            case LAY_COLUMN:
+            case LAY_ROW:
+                if((flags & 1) == dim) {
+                    layArrangeStacked(ctx, item, dim, false);
+                } else {
+                    LayoutContext.LayoutRect rect = ctx.rects[item];
+                    layArrangeOverlaySqueezedRange(ctx, dim, pitem.firstChild, LAY_INVALID_ID,
+                            rect.get(dim) + pitem.padding(dim), rect.get(2 + dim) - pitem.padding(dim) - pitem.padding(2 + dim));
+                }
+                break;
+            default:
+                layArrangeOverlay(ctx, item, dim);
+                break;
+        }
+        if(ctx.snapRects != null) {
+            laySnapRect(ctx, item, dim);
+            if((flags & LAY_ITEM_BOX_MODEL_MASK) == (LAY_COLUMN | LAY_WRAP) && dim != 0) {
+                // wrapped columns change their width, and horizontal position and width of their
+                // children, during vertical pass
+                laySnapRect(ctx, item, 0);
+                int child = pitem.firstChild;
+                while (child != LAY_INVALID_ID) {
+                    laySnapRect(ctx, child, 0);
+                    child = layGetItem(ctx, child).nextSibling;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package io.github.layout;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static io.github.layout.LayoutBoxFlags.*;
+import static io.github.layout.LayoutFlags.*;
+
+/**
+ * Replays a recorded layout trace against a reused context.
+ * Pass path to a trace file captured with {@link LayoutRecorder} via
+ * {@code -p tracePath=/path/to/trace.bin}, otherwise a synthetic trace is generated.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TraceReplayBenchmark {
+
+    @Param("")
+    public String tracePath;
+
+    private byte[] trace;
+    private LayoutContext ctx;
+
+    @Setup
+    public void setup() throws IOException {
+        if(tracePath.isEmpty()) {
+            trace = syntheticTrace();
+        } else {
+            trace = Files.readAllBytes(Paths.get(tracePath));
+        }
+        ctx = new LayoutContext();
+    }
+
+    @Benchmark
+    public void replay(Blackhole bh) {
+        ctx.resetContext();
+        LayoutRecorder.replay(ctx, trace);
+        bh.consume(ctx.getRectWidth(0));
+    }
+
+    private static byte[] syntheticTrace() {
+        LayoutContext ctx = new LayoutContext();
+        LayoutRecorder recorder = new LayoutRecorder();
+        ctx.setRecorder(recorder);
+
+        Random rand = new Random(0xCAFEBABE);
+        int root = ctx.item();
+        ctx.setSize(root, 1280, 720);
+        ctx.setContain(root, LAY_ROW);
+
+        int sidebar = ctx.item();
+        ctx.setSize(sidebar, 200, 0);
+        ctx.setBehave(sidebar, LAY_VFILL);
+        ctx.setContain(sidebar, LAY_COLUMN | LAY_START);
+        ctx.insert(root, sidebar);
+        for (int i = 0; i < 200; i++) {
+            int entry = ctx.item();
+            ctx.setSize(entry, 90 + rand.nextInt(60), 15);
+            ctx.setMargins(entry, 0, 5, 0, 5);
+            ctx.setBehave(entry, LAY_LEFT);
+            ctx.insert(sidebar, entry);
+        }
+
+        int content = ctx.item();
+        ctx.setBehave(content, LAY_FILL);
+        ctx.setContain(content, LAY_ROW | LAY_WRAP | LAY_START);
+        ctx.insert(root, content);
+        for (int i = 0; i < 2000; i++) {
+            int cell = ctx.item();
+            ctx.setSize(cell, 30 + rand.nextInt(30), 30);
+            ctx.setMargins(cell, 10, 10, 10, 10);
+            ctx.insert(content, cell);
+        }
+
+        ctx.runContext();
+        return recorder.toByteArray();
+    }
+}
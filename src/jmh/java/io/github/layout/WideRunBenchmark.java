@@ -0,0 +1,62 @@
+package io.github.layout;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import static io.github.layout.LayoutBoxFlags.*;
+import static io.github.layout.LayoutFlags.*;
+
+/**
+ * Layout of a single row with thousands of children, run the usual way
+ * and by a compiled program, which arranges such rows with its wide kernels.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WideRunBenchmark {
+
+    @Param({"1000", "10000"})
+    public int children;
+
+    private LayoutContext ctx;
+    private LayoutProgram program;
+    private int frame;
+
+    @Setup
+    public void setup() {
+        ctx = new LayoutContext();
+        int root = ctx.item();
+        ctx.setContain(root, LAY_ROW);
+        for (int i = 0; i < children; i++) {
+            int cell = ctx.item();
+            ctx.setSize(cell, i % 3 == 0 ? 0 : 8, 16);
+            ctx.setMargins(cell, 1, 1, 1, 1);
+            ctx.setBehave(cell, i % 3 == 0 ? LAY_HFILL : LAY_VCENTER);
+            ctx.insert(root, cell);
+        }
+        program = ctx.compile();
+    }
+
+    @Benchmark
+    public void interpreted(Blackhole bh) {
+        ctx.setSize(0, nextWidth(), 40);
+        ctx.runContext();
+        bh.consume(ctx.getRectWidth(ctx.itemsCount() - 1));
+    }
+
+    @Benchmark
+    public void compiled(Blackhole bh) {
+        ctx.runCompiled(program, nextWidth(), 40);
+        bh.consume(ctx.getRectWidth(ctx.itemsCount() - 1));
+    }
+
+    private float nextWidth() {
+        frame = (frame + 1) & 255;
+        return children * 8 + frame * 2;
+    }
+}
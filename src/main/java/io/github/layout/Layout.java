@@ -3,7 +3,10 @@ package io.github.layout;
 import org.intellij.lang.annotations.MagicConstant;
 import org.jetbrains.annotations.NotNull;
 
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.concurrent.Executor;
 
 import static io.github.layout.LayoutBoxFlags.*;
 import static io.github.layout.LayoutFlags.*;
@@ -74,11 +77,120 @@ public final class Layout {
 
     // endregion
 
+    // region size cache state bits
+
+    static final int SIZE_CACHED_X = 0x1;
+    static final int SIZE_CACHED_Y = 0x2;
+    // subtree contains a wrapped row, so its vertical size depends on horizontal arrangement
+    static final int SIZE_WIDTH_DEPENDENT = 0x4;
+
+    // endregion
+
+    // region draw list formats
+
+    /**
+     * every item is written as position and size: x, y, width, height
+     */
+    public static final int LAY_DRAW_QUADS = 0x0;
+    /**
+     * every item is written as two triangles of 6 vertices, each vertex has x and y
+     */
+    public static final int LAY_DRAW_TRIANGLES = 0x1;
+    /**
+     * append item id to every quad or vertex as int
+     */
+    public static final int LAY_DRAW_ITEM_ID = 0x10;
+    /**
+     * append user flags of an item (masked with LAY_USERMASK) to every quad or vertex as int
+     */
+    public static final int LAY_DRAW_USER_FLAGS = 0x20;
+    /**
+     * don't write items which have zero width or height
+     */
+    public static final int LAY_DRAW_SKIP_EMPTY = 0x40;
+
+    // endregion
+
+    // number of values appended to the inputs of wrapped lines per child
+    static final int LINES_INPUTS_PER_CHILD = 6;
+
+    // rows and columns with at least that many children are indexed by lay_query_scrolled
+    static final int LAY_STACK_INDEX_MIN_CHILDREN = 32;
+
     static @NotNull LayoutItem layGetItem(@NotNull LayoutContext ctx, int id) {
         assert id >= 0 && id <= ctx.count;
         return ctx.items[id];
     }
 
+    /**
+     * Like lay_get_item, but should be used when the item is going to be modified.
+     * If the item is shared with a forked context, its page is copied first.
+     */
+    static @NotNull LayoutItem layGetItemMut(@NotNull LayoutContext ctx, int id) {
+        assert id >= 0 && id <= ctx.count;
+        if(ctx.sharedPages != null && ctx.sharedPages[id >> LayoutContext.PAGE_SHIFT]) {
+            _ownPage(ctx, id >> LayoutContext.PAGE_SHIFT);
+        }
+        return ctx.items[id];
+    }
+
+    /**
+     * Creates a fork of the context, which initially has the same items and calculated
+     * rectangles. Items are shared between both contexts copy-on-write in pages of
+     * 256 items, so forking only copies the item table references, and changing an item
+     * in either context copies only its page. Rectangles are copied by the first layout
+     * run or item creation in each of the contexts. The fork can be modified and run
+     * without affecting the original context and vice versa, which is useful for
+     * speculative layouts.
+     * Pixel snapping output and recorder are not inherited by the fork.
+     */
+    public static @NotNull LayoutContext layFork(@NotNull LayoutContext ctx) {
+        LayoutContext fork = new LayoutContext();
+        fork.items = ctx.items.clone();
+        fork.rects = ctx.rects.clone();
+        fork.bounds = ctx.bounds != null ? ctx.bounds.clone() : null;
+        fork.sizeCache = ctx.sizeCache != null ? ctx.sizeCache.clone() : null;
+        fork.sizeCacheState = ctx.sizeCacheState != null ? ctx.sizeCacheState.clone() : null;
+        fork.capacity = ctx.capacity;
+        fork.count = ctx.count;
+
+        int pages = (ctx.capacity + LayoutContext.PAGE_SIZE - 1) >> LayoutContext.PAGE_SHIFT;
+        ctx.sharedPages = new boolean[pages];
+        Arrays.fill(ctx.sharedPages, true);
+        ctx.sharedPagesCount = pages;
+        fork.sharedPages = ctx.sharedPages.clone();
+        fork.sharedPagesCount = pages;
+        ctx.rectsShared = fork.rectsShared = true;
+        fork.userInts = ctx.userInts;
+        fork.userLongs = ctx.userLongs;
+        ctx.userIntsShared = fork.userIntsShared = ctx.userInts != null;
+        ctx.userLongsShared = fork.userLongsShared = ctx.userLongs != null;
+        return fork;
+    }
+
+    private static void _ownPage(@NotNull LayoutContext ctx, int page) {
+        int end = Math.min(ctx.capacity, (page + 1) << LayoutContext.PAGE_SHIFT);
+        for(int i = page << LayoutContext.PAGE_SHIFT; i < end; i++) {
+            ctx.items[i] = ctx.items[i].copy();
+        }
+        ctx.sharedPages[page] = false;
+        if(--ctx.sharedPagesCount == 0) {
+            ctx.sharedPages = null;
+        }
+    }
+
+    private static void _ownRects(@NotNull LayoutContext ctx) {
+        for(int i = 0; i < ctx.capacity; i++) {
+            ctx.rects[i] = ctx.rects[i].copy();
+        }
+        if(ctx.bounds != null) {
+            for(int i = 0; i < ctx.capacity; i++) {
+                ctx.bounds[i] = ctx.bounds[i].copy();
+            }
+        }
+        ctx.rectsShared = false;
+    }
+
     /**
      * Reserve enough heap memory to contain `count` items without needing to
      * reallocate. The initial lay_init_context() call does not allocate any heap
@@ -98,6 +210,34 @@ public final class Layout {
                 ctx.items[i] = new LayoutItem();
                 ctx.rects[i] = new LayoutContext.LayoutRect();
             }
+
+            if(ctx.sharedPages != null) {
+                // new pages are owned, the partially filled last page stays shared
+                int pages = (ctx.capacity + LayoutContext.PAGE_SIZE - 1) >> LayoutContext.PAGE_SHIFT;
+                ctx.sharedPages = Arrays.copyOf(ctx.sharedPages, pages);
+            }
+
+            if(ctx.bounds != null) {
+                ctx.bounds = Arrays.copyOf(ctx.bounds, ctx.capacity);
+                for(int i = prevCapacity; i < ctx.capacity; i++) {
+                    ctx.bounds[i] = new LayoutContext.LayoutRect();
+                }
+            }
+
+            // copies are owned by this context
+            if(ctx.userInts != null) {
+                ctx.userInts = Arrays.copyOf(ctx.userInts, ctx.capacity);
+                ctx.userIntsShared = false;
+            }
+            if(ctx.userLongs != null) {
+                ctx.userLongs = Arrays.copyOf(ctx.userLongs, ctx.capacity);
+                ctx.userLongsShared = false;
+            }
+
+            if(ctx.sizeCache != null) {
+                ctx.sizeCache = Arrays.copyOf(ctx.sizeCache, ctx.capacity * 4);
+                ctx.sizeCacheState = Arrays.copyOf(ctx.sizeCacheState, ctx.capacity);
+            }
         }
     }
 
@@ -109,7 +249,77 @@ public final class Layout {
      * you are recalculating your layouts in a loop.
      */
     public static void layResetContext(@NotNull LayoutContext ctx) {
+        if(ctx.recorder != null) ctx.recorder.record(LayoutRecorder.OP_RESET_CONTEXT);
         ctx.count = 0;
+        ctx.structure++;
+    }
+
+    /**
+     * Returns a mark which lay_rewind can later bring the context back to. Useful for trees which
+     * consist of a static part built once, and a dynamic part rebuilt every frame: create the static
+     * items first, take a mark, and rewind to it instead of resetting the context before rebuilding
+     * the dynamic part.
+     */
+    public static int layMark(@NotNull LayoutContext ctx) {
+        return ctx.count;
+    }
+
+    /**
+     * Drops all items created after the mark was taken by lay_mark. Dropped items are detached from
+     * the items which stay, and items which stay are detached from dropped parents and from dropped
+     * siblings outside of the tree. Items which stay keep their properties, calculated rects and
+     * cached sizes, except sizes of their ancestors which lost children. Ids of dropped items are
+     * given out again by lay_item.
+     */
+    public static void layRewind(@NotNull LayoutContext ctx, int mark) {
+        if(ctx.recorder != null) ctx.recorder.record(LayoutRecorder.OP_REWIND, mark);
+        assert mark >= 0 && mark <= ctx.count;
+        for(int item = mark; item < ctx.count; item++) {
+            LayoutItem pitem = layGetItem(ctx, item);
+            final int parent = pitem.parent;
+            if(parent != LAY_INVALID_ID && parent < mark) {
+                // dropped children are unlinked one by one, in any order
+                final int prev = pitem.prevSibling;
+                final int next = pitem.nextSibling;
+                if(prev == LAY_INVALID_ID) {
+                    layGetItemMut(ctx, parent).firstChild = next;
+                } else {
+                    layGetItemMut(ctx, prev).nextSibling = next;
+                }
+                if(next != LAY_INVALID_ID) {
+                    layGetItemMut(ctx, next).prevSibling = prev;
+                }
+                if(ctx.sizeCache != null) _invalidateSize(ctx, parent);
+            } else if(parent == LAY_INVALID_ID) {
+                // siblings which stay in a chain of items outside of the tree are cut off from it
+                final int prev = pitem.prevSibling;
+                final int next = pitem.nextSibling;
+                if(prev != LAY_INVALID_ID && prev < mark) {
+                    layGetItemMut(ctx, prev).nextSibling = LAY_INVALID_ID;
+                }
+                if(next != LAY_INVALID_ID && next < mark) {
+                    LayoutItem pnext = layGetItemMut(ctx, next);
+                    pnext.prevSibling = LAY_INVALID_ID;
+                    pnext.flags &= ~LAY_ITEM_INSERTED;
+                }
+            }
+            int child = pitem.firstChild;
+            while (child != LAY_INVALID_ID) {
+                LayoutItem pchild = layGetItem(ctx, child);
+                final int next = pchild.nextSibling;
+                if(child < mark) {
+                    pchild = layGetItemMut(ctx, child);
+                    pchild.parent = LAY_INVALID_ID;
+                    pchild.prevSibling = LAY_INVALID_ID;
+                    pchild.nextSibling = LAY_INVALID_ID;
+                    pchild.flags &= ~LAY_ITEM_INSERTED;
+                    if(ctx.sizeCache != null) _invalidateSize(ctx, child);
+                }
+                child = next;
+            }
+        }
+        ctx.count = mark;
+        ctx.structure++;
     }
 
     /**
@@ -122,11 +332,15 @@ public final class Layout {
      * doing fine-grained updates to the existing context.
      * However, it's safe to use lay_set_size on an item, and then re-run
      * lay_run_context. This might be useful if you are doing a resizing animation
-     * on items in a layout without any contents changing.
+     * on items in a layout without any contents changing. When the tree is run again
+     * without creating or linking any items in between, the order of items is
+     * remembered in a flat array, which later runs iterate instead of following
+     * child and sibling links.
      */
     public static void layRunContext(@NotNull LayoutContext ctx) {
+        if(ctx.recorder != null) ctx.recorder.record(LayoutRecorder.OP_RUN_CONTEXT);
         if(ctx.count > 0) {
-            layRunItem(ctx, 0);
+            _runItem(ctx, 0);
         }
     }
 
@@ -142,30 +356,457 @@ public final class Layout {
      * re-allocation).
      */
     public static void layRunItem(@NotNull LayoutContext ctx, int item) {
-        layCalcSize(ctx, item, 0);
-        layArrange(ctx, item, 0);
-        layCalcSize(ctx, item, 1);
-        layArrange(ctx, item, 1);
-    }
-
-    /**
-     * Performing a layout on items where wrapping is enabled in the parent
-     * container can cause flags to be modified during the calculations. If you plan
-     * to call lay_run_context or lay_run_item multiple times without calling
-     * lay_reset, and if you have a container that uses wrapping, and if the width
-     * or height of the container may have changed, you should call
-     * lay_clear_item_break on all of the children of a container before calling
-     * lay_run_context or lay_run_item again. If you don't, the layout calculations
-     * may perform unnecessary wrapping.
-     * This requirement may be changed in the future.
-     * Calling this will also reset any manually-specified breaking. You will need
-     * to set the manual breaking again, or simply not call this on any items that
-     * you know you wanted to break manually.
-     * If you clear your context every time you calculate your layout, or if you
-     * don't use wrapping, you don't need to call this.
+        if(ctx.recorder != null) ctx.recorder.record(LayoutRecorder.OP_RUN_ITEM, item);
+        _runItem(ctx, item);
+    }
+
+    private static void _runItem(@NotNull LayoutContext ctx, int item) {
+        if(ctx.rectsShared) _ownRects(ctx);
+        // odd sequence tells concurrent readers that rects are being written
+        final long sequence = ctx.sequence;
+        ctx.sequence = sequence + 1;
+        VarHandle.storeStoreFence();
+        try {
+            if(item == 0 && ctx.sizeCache == null && _prepareTraversal(ctx)) {
+                _runTraversal(ctx);
+            } else {
+                layCalcSize(ctx, item, 0);
+                layArrange(ctx, item, 0);
+                layCalcSize(ctx, item, 1);
+                layArrange(ctx, item, 1);
+            }
+        } finally {
+            ctx.sequence = sequence + 2;
+        }
+    }
+
+    /**
+     * Makes sure that ctx.traversal holds pre-order of the current tree, if it's worth it.
+     * Trees which are rebuilt for every run are run recursively, the order is only stored
+     * once the same tree is run for the second time. Returns false if there is no order to use.
+     */
+    private static boolean _prepareTraversal(@NotNull LayoutContext ctx) {
+        if(ctx.traversal != null && ctx.traversalStructure == ctx.structure) {
+            return true;
+        }
+        if(ctx.runStructure != ctx.structure) {
+            ctx.runStructure = ctx.structure;
+            return false;
+        }
+        if(ctx.traversal == null || ctx.traversal.length < ctx.count) {
+            ctx.traversal = new int[ctx.capacity];
+        }
+        final int[] order = ctx.traversal;
+        int length = 0;
+        int item = 0;
+        for(;;) {
+            order[length++] = item;
+            LayoutItem pitem = layGetItem(ctx, item);
+            if(pitem.firstChild != LAY_INVALID_ID) {
+                item = pitem.firstChild;
+                continue;
+            }
+            while (item != 0 && layGetItem(ctx, item).nextSibling == LAY_INVALID_ID) {
+                item = layGetItem(ctx, item).parent;
+            }
+            if(item == 0) break;
+            item = layGetItem(ctx, item).nextSibling;
+        }
+        ctx.traversalLength = length;
+        ctx.traversalStructure = ctx.structure;
+        return true;
+    }
+
+    /**
+     * Same as running the root item recursively, but iterates stored pre-order instead.
+     * Items only depend on their children when calculating sizes, and on their parents
+     * when arranging, so reversed pre-order serves as well as post-order for the former.
+     */
+    private static void _runTraversal(@NotNull LayoutContext ctx) {
+        final int[] order = ctx.traversal;
+        final int length = ctx.traversalLength;
+        for(int dim = 0; dim < 2; dim++) {
+            for(int i = length - 1; i >= 0; i--) {
+                layCalcItemSize(ctx, order[i], dim);
+            }
+            for(int i = 0; i < length; i++) {
+                layArrangeItem(ctx, order[i], dim);
+            }
+        }
+        if(ctx.bounds != null) {
+            for(int i = length - 1; i >= 0; i--) {
+                layUpdateBounds(ctx, order[i]);
+            }
+        }
+    }
+
+    /**
+     * Compiles layout of the whole tree of the context into a program, which can be run
+     * repeatedly with lay_run_compiled for different sizes of the root item. Useful for trees
+     * which are structurally fixed, e.g. HUDs, where only the root size changes from frame
+     * to frame. Program doesn't follow changes made to the items after compilation.
+     *
+     * @see LayoutProgram
+     */
+    public static @NotNull LayoutProgram layCompile(@NotNull LayoutContext ctx) {
+        if(ctx.count == 0) {
+            throw new IllegalStateException("Can't compile layout of an empty context");
+        }
+        return LayoutProgram.compile(ctx);
+    }
+
+    /**
+     * Runs layout of the context with a program previously compiled from it (or from a context
+     * it was forked from) by lay_compile. Output is the same as if the root item had
+     * given size and lay_run_context was called, but size of the root item isn't changed.
+     * Runs made this way aren't recorded.
+     */
+    public static void layRunCompiled(@NotNull LayoutContext ctx, @NotNull LayoutProgram program, float width, float height) {
+        if(ctx.rectsShared) _ownRects(ctx);
+        final long sequence = ctx.sequence;
+        ctx.sequence = sequence + 1;
+        VarHandle.storeStoreFence();
+        // wrapped root is run as a whole subtree by the regular procedures,
+        // which take size of the root from the item itself
+        final LayoutItem root = program.calcOps[0] == LayoutProgram.OP_SUBTREE ? layGetItemMut(ctx, 0) : null;
+        final float sizeX = root != null ? root.sizeX : 0F;
+        final float sizeY = root != null ? root.sizeY : 0F;
+        try {
+            if(root != null) {
+                root.sizeX = width;
+                root.sizeY = height;
+                if(ctx.sizeCache != null) _invalidateSize(ctx, 0);
+            }
+            program.run(ctx, width, height);
+        } finally {
+            if(root != null) {
+                root.sizeX = sizeX;
+                root.sizeY = sizeY;
+                if(ctx.sizeCache != null) _invalidateSize(ctx, 0);
+            }
+            ctx.sequence = sequence + 2;
+        }
+    }
+
+    /**
+     * Collects statistics of the tree of the context: depth, fan-out, box models of containers and lines
+     * of wrapped containers. If profile is true, layout is run first the same way as by lay_run_context,
+     * with time measured for every subtree, which adds considerable overhead to the run itself.
+     * Otherwise statistics reflect the latest layout run.
+     *
+     * @see LayoutReport
+     */
+    public static @NotNull LayoutReport layAnalyze(@NotNull LayoutContext ctx, boolean profile) {
+        long[] nanos = null;
+        if(profile && ctx.count > 0) {
+            if(ctx.recorder != null) ctx.recorder.record(LayoutRecorder.OP_RUN_CONTEXT);
+            nanos = new long[ctx.count];
+            if(ctx.rectsShared) _ownRects(ctx);
+            final long sequence = ctx.sequence;
+            ctx.sequence = sequence + 1;
+            VarHandle.storeStoreFence();
+            try {
+                _profileCalcSize(ctx, 0, 0, nanos);
+                _profileArrange(ctx, 0, 0, nanos);
+                _profileCalcSize(ctx, 0, 1, nanos);
+                _profileArrange(ctx, 0, 1, nanos);
+            } finally {
+                ctx.sequence = sequence + 2;
+            }
+        }
+        return LayoutReport.build(ctx, nanos);
+    }
+
+    /**
+     * lay_calc_size which adds time spent on every subtree to nanos
+     */
+    private static void _profileCalcSize(@NotNull LayoutContext ctx, int item, int dim, long[] nanos) {
+        final long start = System.nanoTime();
+        if(ctx.sizeCache == null || !_restoreCachedSize(ctx, item, dim)) {
+            int child = layGetItem(ctx, item).firstChild;
+            while (child != LAY_INVALID_ID) {
+                _profileCalcSize(ctx, child, dim, nanos);
+                child = layGetItem(ctx, child).nextSibling;
+            }
+            layCalcItemSize(ctx, item, dim);
+            if(ctx.sizeCache != null) {
+                _cacheSize(ctx, item, dim);
+            }
+        }
+        nanos[item] += System.nanoTime() - start;
+    }
+
+    /**
+     * lay_arrange which adds time spent on every subtree to nanos
+     */
+    private static void _profileArrange(@NotNull LayoutContext ctx, int item, int dim, long[] nanos) {
+        final long start = System.nanoTime();
+        layArrangeItem(ctx, item, dim);
+        int child = layGetItem(ctx, item).firstChild;
+        while (child != LAY_INVALID_ID) {
+            _profileArrange(ctx, child, dim, nanos);
+            child = layGetItem(ctx, child).nextSibling;
+        }
+        if(dim == 1 && ctx.bounds != null) {
+            layUpdateBounds(ctx, item);
+        }
+        nanos[item] += System.nanoTime() - start;
+    }
+
+    /**
+     * Same as lay_run_context, but first looks for the results in given cache by the input state
+     * of the tree, and stores them into the cache if they weren't found. Bounds and snapped
+     * rects are updated as usual in both cases. Returns true if results were taken from the cache.
+     * <p>
+     * When results are taken from the cache, lines of wrapped containers are discarded, since they
+     * may have been broken for another tree. Sizes cached by lay_set_size_cache are kept: they are
+     * invalidated by every change of an item and its ancestors, so the ones which are still valid
+     * were calculated from the current inputs.
+     *
+     * @see LayoutResultCache
+     */
+    public static boolean layRunCached(@NotNull LayoutContext ctx, @NotNull LayoutResultCache cache) {
+        if(ctx.recorder != null) ctx.recorder.record(LayoutRecorder.OP_RUN_CONTEXT);
+        if(ctx.count == 0) return false;
+
+        LayoutResultCache.Key key = LayoutResultCache.key(ctx);
+        if(ctx.rectsShared) _ownRects(ctx);
+        final long sequence = ctx.sequence;
+        ctx.sequence = sequence + 1;
+        VarHandle.storeStoreFence();
+        boolean hit;
+        try {
+            hit = cache.load(ctx, key);
+            if(hit) {
+                final int[] order = key.order;
+                for(int id : order) {
+                    if(layGetItem(ctx, id).lines != null) {
+                        layGetItemMut(ctx, id).lines.valid = false;
+                    }
+                }
+                if(ctx.snapRects != null) {
+                    for(int id : order) {
+                        laySnapRect(ctx, id, 0);
+                        laySnapRect(ctx, id, 1);
+                    }
+                }
+                if(ctx.bounds != null) {
+                    // reversed pre-order visits children before their parents
+                    for(int i = order.length - 1; i >= 0; i--) {
+                        layUpdateBounds(ctx, order[i]);
+                    }
+                }
+            }
+        } finally {
+            ctx.sequence = sequence + 2;
+        }
+        if(!hit) {
+            _runItem(ctx, 0);
+            cache.store(ctx, key);
+        }
+        return hit;
+    }
+
+    /**
+     * Sorts items of the context into breadth-first levels, which can be run with
+     * lay_run_level_plan until items are created or linked again.
+     *
+     * @see LayoutLevelPlan
+     */
+    public static @NotNull LayoutLevelPlan layBuildLevelPlan(@NotNull LayoutContext ctx) {
+        return LayoutLevelPlan.build(ctx);
+    }
+
+    /**
+     * Same as lay_run_context, but runs layout level by level according to given plan
+     * on the calling thread.
+     */
+    public static void layRunLevelPlan(@NotNull LayoutContext ctx, @NotNull LayoutLevelPlan plan) {
+        layRunLevelPlan(ctx, plan, null, 1);
+    }
+
+    /**
+     * Same as lay_run_context, but runs layout level by level according to given plan. Levels
+     * which are wide enough are split into up to `parallelism` parts, which are run by given
+     * executor together with the calling thread. Returns when layout is complete.
+     *
+     * @throws IllegalStateException if the plan has been built for another context or items
+     *                               have been created or linked since it was built
+     */
+    public static void layRunLevelPlan(@NotNull LayoutContext ctx, @NotNull LayoutLevelPlan plan, Executor executor, int parallelism) {
+        if(plan.ctx != ctx || plan.isOutdated()) {
+            throw new IllegalStateException("Level plan doesn't match the tree of the context");
+        }
+        if(ctx.recorder != null) ctx.recorder.record(LayoutRecorder.OP_RUN_CONTEXT);
+        if(ctx.rectsShared) _ownRects(ctx);
+        final long sequence = ctx.sequence;
+        ctx.sequence = sequence + 1;
+        VarHandle.storeStoreFence();
+        try {
+            plan.run(executor, parallelism);
+        } finally {
+            ctx.sequence = sequence + 2;
+        }
+    }
+
+    /**
+     * Lays out the tree of the context at several sizes of the root item in one call, e.g. at
+     * breakpoints of a responsive design. Rectangles calculated for i-th pair of `widths` and
+     * `heights` are written into `dst[i]` (x, y, width, height per item, 4 floats per item),
+     * which is the same as setting the size of the root item and calling lay_run_context for each
+     * pair. Size of the root item isn't changed, calculated rectangles of the context are those of
+     * the last pair.
+     * Horizontal sizes never depend on the size of the root, so they are calculated once for all
+     * of the pairs, and so are the vertical ones, unless the tree contains wrapped rows, whose
+     * height depends on where they break their lines.
+     */
+    public static void layRunBreakpoints(@NotNull LayoutContext ctx, float[] widths, float[] heights, float[][] dst) {
+        assert widths.length == heights.length && dst.length >= widths.length;
+        final int count = ctx.count;
+        if(count == 0 || widths.length == 0) return;
+        if(ctx.rectsShared) _ownRects(ctx);
+        final long sequence = ctx.sequence;
+        ctx.sequence = sequence + 1;
+        VarHandle.storeStoreFence();
+
+        final LayoutContext.LayoutRect[] rects = ctx.rects;
+        LayoutItem root = layGetItemMut(ctx, 0);
+        final float sizeX = root.sizeX;
+        final float sizeY = root.sizeY;
+        try {
+            // sizes shared between all of the runs
+            ctx.wrapSeen = false;
+            root.sizeX = widths[0];
+            if(ctx.sizeCache != null) _invalidateSize(ctx, 0);
+            layCalcSize(ctx, 0, 0);
+            final float[] calculatedX = new float[count * 2];
+            for(int i = 0; i < count; i++) {
+                calculatedX[i * 2] = rects[i].x;
+                calculatedX[i * 2 + 1] = rects[i].w;
+            }
+            float[] calculatedY = null;
+            if(!ctx.wrapSeen) {
+                root.sizeY = heights[0];
+                if(ctx.sizeCache != null) _invalidateSize(ctx, 0);
+                layCalcSize(ctx, 0, 1);
+                calculatedY = new float[count * 2];
+                for(int i = 0; i < count; i++) {
+                    calculatedY[i * 2] = rects[i].y;
+                    calculatedY[i * 2 + 1] = rects[i].h;
+                }
+            }
+
+            for(int k = 0; k < widths.length; k++) {
+                assert dst[k].length >= count * 4;
+                root.sizeX = widths[k];
+                root.sizeY = heights[k];
+                if(ctx.sizeCache != null) _invalidateSize(ctx, 0);
+                for(int i = 0; i < count; i++) {
+                    rects[i].x = calculatedX[i * 2];
+                    rects[i].w = calculatedX[i * 2 + 1];
+                }
+                // children are the same, only the root has to be calculated again
+                layCalcItemSize(ctx, 0, 0);
+                layArrange(ctx, 0, 0);
+                if(calculatedY != null) {
+                    for(int i = 0; i < count; i++) {
+                        rects[i].y = calculatedY[i * 2];
+                        rects[i].h = calculatedY[i * 2 + 1];
+                    }
+                    layCalcItemSize(ctx, 0, 1);
+                } else {
+                    layCalcSize(ctx, 0, 1);
+                }
+                layArrange(ctx, 0, 1);
+
+                final float[] out = dst[k];
+                for(int i = 0; i < count; i++) {
+                    LayoutContext.LayoutRect rect = rects[i];
+                    out[i * 4] = rect.x;
+                    out[i * 4 + 1] = rect.y;
+                    out[i * 4 + 2] = rect.w;
+                    out[i * 4 + 3] = rect.h;
+                }
+            }
+        } finally {
+            root.sizeX = sizeX;
+            root.sizeY = sizeY;
+            if(ctx.sizeCache != null) _invalidateSize(ctx, 0);
+            ctx.sequence = sequence + 2;
+        }
+    }
+
+    /**
+     * Calculates the size an item would have if it was given `availWidth` and `availHeight`
+     * of space by its parent, without arranging its descendants and without touching
+     * calculated rectangles of any item. Size of the item is written to given array, which
+     * should have size of at least 2 elements, and then returned.
+     * Available space of 0 means that space is unlimited, in which case the item takes its
+     * intrinsic size. Otherwise, items which fill the dimension (LAY_HFILL, LAY_VFILL) take all
+     * of the available space except for their margins, and the rest keep their own size.
+     * Available width is taken into account when breaking lines of wrapped rows within the
+     * item, which is the only case when the horizontal pass of arrangement is run.
+     */
+    public static float[] layMeasure(@NotNull LayoutContext ctx, int item, float availWidth, float availHeight, float[] dst) {
+        assert dst.length >= 2;
+        if(ctx.scratchRects == null || ctx.scratchRects.length < ctx.capacity) {
+            int prevLength = ctx.scratchRects == null ? 0 : ctx.scratchRects.length;
+            ctx.scratchRects = ctx.scratchRects == null
+                    ? new LayoutContext.LayoutRect[ctx.capacity]
+                    : Arrays.copyOf(ctx.scratchRects, ctx.capacity);
+            for(int i = prevLength; i < ctx.capacity; i++) {
+                ctx.scratchRects[i] = new LayoutContext.LayoutRect();
+            }
+        }
+
+        // run size calculation on scratch rects, so that output of the last run stays intact;
+        // concurrent readers are told to retry while scratch rects are published in place of it
+        LayoutContext.LayoutRect[] rects = ctx.rects;
+        int[] snapRects = ctx.snapRects;
+        final long sequence = ctx.sequence;
+        ctx.sequence = sequence + 1;
+        VarHandle.storeStoreFence();
+        ctx.rects = ctx.scratchRects;
+        ctx.snapRects = null;
+        ctx.wrapSeen = false;
+        try {
+            LayoutItem pitem = layGetItem(ctx, item);
+            LayoutContext.LayoutRect rect = ctx.rects[item];
+
+            layCalcSize(ctx, item, 0);
+            if(availWidth > 0 && (pitem.flags & LAY_HFILL) == LAY_HFILL) {
+                rect.w = Math.max(0, availWidth - pitem.marginLeft - pitem.marginRight);
+            }
+            if(ctx.wrapSeen) {
+                layArrange(ctx, item, 0);
+            }
+
+            layCalcSize(ctx, item, 1);
+            if(availHeight > 0 && (pitem.flags & LAY_VFILL) == LAY_VFILL) {
+                rect.h = Math.max(0, availHeight - pitem.marginTop - pitem.marginBottom);
+            }
+
+            dst[0] = rect.w;
+            dst[1] = rect.h;
+            return dst;
+        } finally {
+            ctx.rects = rects;
+            ctx.snapRects = snapRects;
+            VarHandle.storeStoreFence();
+            ctx.sequence = sequence + 2;
+        }
+    }
+
+    /**
+     * Removes manually-specified breaking (LAY_BREAK) from an item.
+     * Line breaks calculated by wrapping containers are stored separately from item
+     * flags, so it's no longer necessary to call this before re-running layout of
+     * a wrapping container whose size has changed.
      */
     public static void layClearItemBreak(@NotNull LayoutContext ctx, int item) {
-        LayoutItem pitem = layGetItem(ctx, item);
+        if(ctx.recorder != null) ctx.recorder.record(LayoutRecorder.OP_CLEAR_ITEM_BREAK, item);
+        LayoutItem pitem = layGetItemMut(ctx, item);
+        if(ctx.sizeCache != null) _invalidateSize(ctx, item);
         pitem.flags = pitem.flags & ~(LAY_BREAK);
     }
 
@@ -189,23 +830,37 @@ public final class Layout {
      * id (handle) used to identify the item.
      */
     public static int layItem(@NotNull LayoutContext ctx) {
+        if(ctx.recorder != null) ctx.recorder.record(LayoutRecorder.OP_ITEM);
         int idx = ctx.count++;
+        ctx.structure++;
         if(idx >= ctx.capacity) {
             layReserveItemsCapacity(ctx, ctx.capacity < 1 ? 32 : (ctx.capacity * 4));
         }
 
-        LayoutItem item = layGetItem(ctx, idx);
+        LayoutItem item = layGetItemMut(ctx, idx);
         _clearItem(item);
         item.firstChild = LAY_INVALID_ID;
         item.nextSibling = LAY_INVALID_ID;
+        item.parent = LAY_INVALID_ID;
+        item.prevSibling = LAY_INVALID_ID;
+        if(ctx.rectsShared) _ownRects(ctx);
         _clearRect(ctx.rects[idx]);
+        if(ctx.sizeCache != null) ctx.sizeCacheState[idx] = 0;
+        if(ctx.userInts != null && ctx.userInts[idx] != 0) _ownUserInts(ctx)[idx] = 0;
+        if(ctx.userLongs != null && ctx.userLongs[idx] != 0) _ownUserLongs(ctx)[idx] = 0;
         return idx;
     }
 
-    static void layAppendByPtr(@NotNull LayoutItem pearlier, int later, @NotNull LayoutItem plater) {
-        plater.nextSibling = pearlier.nextSibling;
+    static void layAppendByPtr(@NotNull LayoutContext ctx, int earlier, @NotNull LayoutItem pearlier, int later, @NotNull LayoutItem plater) {
+        int next = pearlier.nextSibling;
+        plater.nextSibling = next;
+        plater.prevSibling = earlier;
+        plater.parent = pearlier.parent;
         plater.flags |= LAY_ITEM_INSERTED;
         pearlier.nextSibling = later;
+        if(next != LAY_INVALID_ID) {
+            layGetItemMut(ctx, next).prevSibling = later;
+        }
     }
 
     public static int layLastChild(@NotNull LayoutContext ctx, int parent) {
@@ -229,26 +884,31 @@ public final class Layout {
      * put at the end of the ordering, after any existing siblings.
      */
     public static void layInsert(@NotNull LayoutContext ctx, int parent, int child) {
+        if(ctx.recorder != null) ctx.recorder.record(LayoutRecorder.OP_INSERT, parent, child);
+        ctx.structure++;
         assert child != 0; // Must not be root item
         assert parent != child; // Must not be root item
-        LayoutItem pparent = layGetItem(ctx, parent);
-        LayoutItem pchild = layGetItem(ctx, child);
+        LayoutItem pparent = layGetItemMut(ctx, parent);
+        LayoutItem pchild = layGetItemMut(ctx, child);
         assert (pchild.flags & LAY_ITEM_INSERTED) == 0;
+        if(ctx.sizeCache != null) _invalidateSize(ctx, parent);
         // Parent has no existing children, make inserted item the first child.
         if(pparent.firstChild == LAY_INVALID_ID) {
             pparent.firstChild = child;
+            pchild.parent = parent;
             pchild.flags |= LAY_ITEM_INSERTED;
         } else {
             // Parent has existing items, iterate to find the last child and append the
             // inserted item after it.
-            int next = pparent.firstChild;
-            LayoutItem pnext = layGetItem(ctx, next);
+            int last = pparent.firstChild;
+            LayoutItem plast = layGetItem(ctx, last);
             for(;;) {
-                next = pnext.nextSibling;
+                int next = plast.nextSibling;
                 if(next == LAY_INVALID_ID) break;
-                pnext = layGetItem(ctx, next);
+                last = next;
+                plast = layGetItem(ctx, next);
             }
-            layAppendByPtr(pnext, child, pchild);
+            layAppendByPtr(ctx, last, layGetItemMut(ctx, last), child, pchild);
         }
 
     }
@@ -263,11 +923,14 @@ public final class Layout {
      * this after using lay_insert to insert the first child.
      */
     public static void layAppend(@NotNull LayoutContext ctx, int earlier, int later) {
+        if(ctx.recorder != null) ctx.recorder.record(LayoutRecorder.OP_APPEND, earlier, later);
+        ctx.structure++;
         assert later != 0; // Must not be root item
         assert earlier != later; // Must not be same item id
-        LayoutItem pearlier = layGetItem(ctx, earlier);
-        LayoutItem plater = layGetItem(ctx, later);
-        layAppendByPtr(pearlier, later, plater);
+        LayoutItem pearlier = layGetItemMut(ctx, earlier);
+        LayoutItem plater = layGetItemMut(ctx, later);
+        if(ctx.sizeCache != null) _invalidateSize(ctx, pearlier.parent);
+        layAppendByPtr(ctx, earlier, pearlier, later, plater);
     }
 
 
@@ -276,15 +939,23 @@ public final class Layout {
      * of as the last.
      */
     public static void layPush(@NotNull LayoutContext ctx, int parent, int newChild) {
+        if(ctx.recorder != null) ctx.recorder.record(LayoutRecorder.OP_PUSH, parent, newChild);
+        ctx.structure++;
         assert newChild != 0; // Must not be root item
         assert parent != newChild; // Must not be same item id
-        LayoutItem pparent = layGetItem(ctx, parent);
+        LayoutItem pparent = layGetItemMut(ctx, parent);
         int oldChild = pparent.firstChild;
-        LayoutItem pchild = layGetItem(ctx, newChild);
+        LayoutItem pchild = layGetItemMut(ctx, newChild);
         assert (pchild.flags & LAY_ITEM_INSERTED) == 0;
+        if(ctx.sizeCache != null) _invalidateSize(ctx, parent);
         pparent.firstChild = newChild;
         pchild.flags |= LAY_ITEM_INSERTED;
         pchild.nextSibling = oldChild;
+        pchild.prevSibling = LAY_INVALID_ID;
+        pchild.parent = parent;
+        if(oldChild != LAY_INVALID_ID) {
+            layGetItemMut(ctx, oldChild).prevSibling = newChild;
+        }
     }
 
     /**
@@ -296,7 +967,9 @@ public final class Layout {
      * Grow factor of 0 (by default) will be interpreted as 1. Negative values are invalid.
      */
     public static void laySetGrow(@NotNull LayoutContext ctx, int item, float grow) {
-        LayoutItem pitem = layGetItem(ctx, item);
+        if(ctx.recorder != null) ctx.recorder.record(LayoutRecorder.OP_SET_GROW, item, grow);
+        LayoutItem pitem = layGetItemMut(ctx, item);
+        if(ctx.sizeCache != null) _invalidateSize(ctx, item);
         pitem.grow = grow;
         pitem.flags |= LAY_ITEM_GROW_SET;
     }
@@ -313,7 +986,9 @@ public final class Layout {
      * Sets the size of an item
      */
     public static void laySetSize(@NotNull LayoutContext ctx, int item, float width, float height) {
-        LayoutItem pitem = layGetItem(ctx, item);
+        if(ctx.recorder != null) ctx.recorder.record(LayoutRecorder.OP_SET_SIZE, item, width, height);
+        LayoutItem pitem = layGetItemMut(ctx, item);
+        if(ctx.sizeCache != null) _invalidateSize(ctx, item);
         pitem.sizeX = width;
         pitem.sizeY = height;
         int flags = pitem.flags;
@@ -364,7 +1039,9 @@ public final class Layout {
     public static void laySetBehave(@NotNull LayoutContext ctx, int item, @MagicConstant(flagsFromClass = LayoutFlags.class) int flags) {
         //noinspection MagicConstant
         assert (flags & LAY_ITEM_LAYOUT_MASK) == flags;
-        LayoutItem pitem = layGetItem(ctx, item);
+        if(ctx.recorder != null) ctx.recorder.record(LayoutRecorder.OP_SET_BEHAVE, item, flags);
+        LayoutItem pitem = layGetItemMut(ctx, item);
+        if(ctx.sizeCache != null) _invalidateSize(ctx, item);
         pitem.flags = (pitem.flags & ~LAY_ITEM_LAYOUT_MASK) | flags;
     }
 
@@ -376,7 +1053,9 @@ public final class Layout {
     public static void laySetContain(@NotNull LayoutContext ctx, int item, @MagicConstant(flagsFromClass = LayoutBoxFlags.class) int flags) {
         //noinspection MagicConstant
         assert (flags & LAY_ITEM_BOX_MASK) == flags;
-        LayoutItem pitem = layGetItem(ctx, item);
+        if(ctx.recorder != null) ctx.recorder.record(LayoutRecorder.OP_SET_CONTAIN, item, flags);
+        LayoutItem pitem = layGetItemMut(ctx, item);
+        if(ctx.sizeCache != null) _invalidateSize(ctx, item);
         pitem.flags = (pitem.flags & ~LAY_ITEM_BOX_MASK) | flags;
     }
 
@@ -387,7 +1066,9 @@ public final class Layout {
      * l: left, t: top, r: right, b: bottom
      */
     public static void laySetMargins(@NotNull LayoutContext ctx, int item, float left, float top, float right, float bottom) {
-        LayoutItem pitem = layGetItem(ctx, item);
+        if(ctx.recorder != null) ctx.recorder.record(LayoutRecorder.OP_SET_MARGINS, item, left, top, right, bottom);
+        LayoutItem pitem = layGetItemMut(ctx, item);
+        if(ctx.sizeCache != null) _invalidateSize(ctx, item);
         pitem.marginLeft = left;
         pitem.marginTop = top;
         pitem.marginRight = right;
@@ -408,6 +1089,70 @@ public final class Layout {
         return dst;
     }
 
+    /**
+     * Sets the padding of a container, which is the space between its edges and its children.
+     * Padding is a part of the container size: when the size is calculated from children,
+     * padding is added to it, and when the size is set explicitly, children get that size
+     * minus the padding.
+     * l: left, t: top, r: right, b: bottom
+     */
+    public static void laySetPadding(@NotNull LayoutContext ctx, int item, float left, float top, float right, float bottom) {
+        if(ctx.recorder != null) ctx.recorder.record(LayoutRecorder.OP_SET_PADDING, item, left, top, right, bottom);
+        LayoutItem pitem = layGetItemMut(ctx, item);
+        if(ctx.sizeCache != null) _invalidateSize(ctx, item);
+        LayoutSpacing spacing = _spacing(pitem);
+        spacing.paddingLeft = left;
+        spacing.paddingTop = top;
+        spacing.paddingRight = right;
+        spacing.paddingBottom = bottom;
+    }
+
+    /**
+     * Get the padding that was set by setPadding. Output will be written to provided array,
+     * which should have size of at least 4 elements
+     */
+    public static float[] layGetPaddingLTRB(@NotNull LayoutContext ctx, int item, float[] dst) {
+        assert dst.length >= 4;
+        LayoutItem pitem = layGetItem(ctx, item);
+        for(int i = 0; i < 4; i++) {
+            dst[i] = pitem.padding(i);
+        }
+        return dst;
+    }
+
+    /**
+     * Sets the gaps of a row or column container. `gap` is the space between neighbouring
+     * children along the direction of the container, and `crossGap` is the space between
+     * lines of a wrapped container.
+     */
+    public static void laySetGap(@NotNull LayoutContext ctx, int item, float gap, float crossGap) {
+        if(ctx.recorder != null) ctx.recorder.record(LayoutRecorder.OP_SET_GAP, item, gap, crossGap);
+        LayoutItem pitem = layGetItemMut(ctx, item);
+        if(ctx.sizeCache != null) _invalidateSize(ctx, item);
+        LayoutSpacing spacing = _spacing(pitem);
+        spacing.gap = gap;
+        spacing.crossGap = crossGap;
+    }
+
+    /**
+     * Get the gaps that were set by setGap. Output will be written to provided array,
+     * which should have size of at least 2 elements: gap and cross gap
+     */
+    public static float[] layGetGap(@NotNull LayoutContext ctx, int item, float[] dst) {
+        assert dst.length >= 2;
+        LayoutItem pitem = layGetItem(ctx, item);
+        dst[0] = pitem.gap();
+        dst[1] = pitem.crossGap();
+        return dst;
+    }
+
+    private static @NotNull LayoutSpacing _spacing(@NotNull LayoutItem pitem) {
+        if(pitem.spacing == null) {
+            pitem.spacing = new LayoutSpacing();
+        }
+        return pitem.spacing;
+    }
+
     /**
      * Get the id of first child of an item, if any. Returns LAY_INVALID_ID if there
      * is no child.
@@ -424,6 +1169,37 @@ public final class Layout {
         return layGetItem(ctx, id).nextSibling;
     }
 
+    /**
+     * Get the id of the parent of an item, if any. Returns LAY_INVALID_ID if the item
+     * has not been inserted.
+     */
+    public static int layParent(@NotNull LayoutContext ctx, int id) {
+        return layGetItem(ctx, id).parent;
+    }
+
+    /**
+     * Get the id of the previous sibling of an item, if any. Returns LAY_INVALID_ID if
+     * the item is the first child of its parent.
+     */
+    public static int layPrevSibling(@NotNull LayoutContext ctx, int id) {
+        return layGetItem(ctx, id).prevSibling;
+    }
+
+    /**
+     * Returns the number of ancestors of an item, 0 for items which have not been inserted.
+     * Depth is not stored, but calculated by following parent links, since subtrees may be
+     * built before being inserted into their parents.
+     */
+    public static int layDepth(@NotNull LayoutContext ctx, int id) {
+        int depth = 0;
+        int parent = layGetItem(ctx, id).parent;
+        while (parent != LAY_INVALID_ID) {
+            depth++;
+            parent = layGetItem(ctx, parent).parent;
+        }
+        return depth;
+    }
+
     /**
      * Returns item flags, which were set both by user code, and by internal layout code
      */
@@ -431,6 +1207,162 @@ public final class Layout {
         return layGetItem(ctx, id).flags;
     }
 
+    /**
+     * Associates an int value with an item, e.g. an index of the widget which owns it.
+     * User data is stored in plain arrays next to the item table, so mapping item ids back to
+     * application objects doesn't require boxing or hashing. User data of newly created items
+     * is 0. Unlike other item properties, user data isn't recorded by lay_set_recorder.
+     */
+    public static void laySetUserInt(@NotNull LayoutContext ctx, int item, int value) {
+        assert item >= 0 && item < ctx.count;
+        _ownUserInts(ctx)[item] = value;
+    }
+
+    /**
+     * Returns int value associated with an item by lay_set_user_int
+     */
+    public static int layGetUserInt(@NotNull LayoutContext ctx, int item) {
+        assert item >= 0 && item < ctx.count;
+        return ctx.userInts != null ? ctx.userInts[item] : 0;
+    }
+
+    /**
+     * Associates a long value with an item, same as lay_set_user_int
+     */
+    public static void laySetUserLong(@NotNull LayoutContext ctx, int item, long value) {
+        assert item >= 0 && item < ctx.count;
+        _ownUserLongs(ctx)[item] = value;
+    }
+
+    /**
+     * Returns long value associated with an item by lay_set_user_long
+     */
+    public static long layGetUserLong(@NotNull LayoutContext ctx, int item) {
+        assert item >= 0 && item < ctx.count;
+        return ctx.userLongs != null ? ctx.userLongs[item] : 0L;
+    }
+
+    /**
+     * Sets int values of `length` items starting with item `first` from given array
+     */
+    public static void laySetUserInts(@NotNull LayoutContext ctx, int first, int[] src, int srcOffset, int length) {
+        assert first >= 0 && first + length <= ctx.count;
+        System.arraycopy(src, srcOffset, _ownUserInts(ctx), first, length);
+    }
+
+    /**
+     * Sets long values of `length` items starting with item `first` from given array
+     */
+    public static void laySetUserLongs(@NotNull LayoutContext ctx, int first, long[] src, int srcOffset, int length) {
+        assert first >= 0 && first + length <= ctx.count;
+        System.arraycopy(src, srcOffset, _ownUserLongs(ctx), first, length);
+    }
+
+    /**
+     * Writes int values of the first `count` items in `ids` into `dst`, e.g. to map results
+     * of lay_query_visible to widgets. Returns `dst`.
+     */
+    public static int[] layGatherUserInts(@NotNull LayoutContext ctx, int[] ids, int count, int[] dst) {
+        assert count <= ids.length && count <= dst.length;
+        final int[] values = ctx.userInts;
+        if(values == null) {
+            Arrays.fill(dst, 0, count, 0);
+            return dst;
+        }
+        for(int i = 0; i < count; i++) {
+            assert ids[i] >= 0 && ids[i] < ctx.count;
+            dst[i] = values[ids[i]];
+        }
+        return dst;
+    }
+
+    /**
+     * Writes long values of the first `count` items in `ids` into `dst`. Returns `dst`.
+     */
+    public static long[] layGatherUserLongs(@NotNull LayoutContext ctx, int[] ids, int count, long[] dst) {
+        assert count <= ids.length && count <= dst.length;
+        final long[] values = ctx.userLongs;
+        if(values == null) {
+            Arrays.fill(dst, 0, count, 0L);
+            return dst;
+        }
+        for(int i = 0; i < count; i++) {
+            assert ids[i] >= 0 && ids[i] < ctx.count;
+            dst[i] = values[ids[i]];
+        }
+        return dst;
+    }
+
+    /**
+     * Returns user int values for writing, allocating or copying them from a fork if needed
+     */
+    private static int[] _ownUserInts(@NotNull LayoutContext ctx) {
+        if(ctx.userInts == null) {
+            ctx.userInts = new int[ctx.capacity];
+        } else if(ctx.userIntsShared) {
+            ctx.userInts = ctx.userInts.clone();
+        }
+        ctx.userIntsShared = false;
+        return ctx.userInts;
+    }
+
+    /**
+     * Returns user long values for writing, allocating or copying them from a fork if needed
+     */
+    private static long[] _ownUserLongs(@NotNull LayoutContext ctx) {
+        if(ctx.userLongs == null) {
+            ctx.userLongs = new long[ctx.capacity];
+        } else if(ctx.userLongsShared) {
+            ctx.userLongs = ctx.userLongs.clone();
+        }
+        ctx.userLongsShared = false;
+        return ctx.userLongs;
+    }
+
+    /**
+     * Returns a stamp for reading calculated rectangles from another thread while layout may
+     * be running, or 0 if layout is running at the moment. Read the rectangles you need with
+     * lay_get_rect* functions and then check with lay_validate_read whether they belong to the
+     * same completed layout run. If validation fails, the values must be discarded and read
+     * again. Readers never block the layout thread and don't allocate.
+     * This only protects against concurrent lay_run_context and lay_run_item; items must not
+     * be created or modified while they are being read.
+     */
+    public static long layReadStamp(@NotNull LayoutContext ctx) {
+        long sequence = ctx.sequence;
+        return (sequence & 1) == 0 ? sequence : 0;
+    }
+
+    /**
+     * Returns true if no layout has been run since the given stamp was obtained with
+     * lay_read_stamp, which means that all values read in between are consistent.
+     */
+    public static boolean layValidateRead(@NotNull LayoutContext ctx, long stamp) {
+        VarHandle.loadLoadFence();
+        return stamp != 0 && ctx.sequence == stamp;
+    }
+
+    /**
+     * Reads calculated rectangle of an item from another thread while layout may be running.
+     * Returns false without touching the output array if the layout is running or has been
+     * run during the read, in which case caller should try again later. Otherwise, output is
+     * written to given array like in lay_get_rect and the rectangle is the result of the last
+     * completed layout run.
+     */
+    public static boolean layTryGetRect(@NotNull LayoutContext ctx, int id, float[] dst) {
+        assert dst.length >= 4;
+        long stamp = layReadStamp(ctx);
+        if(stamp == 0 || id < 0 || id >= ctx.count) return false;
+        LayoutContext.LayoutRect rect = ctx.rects[id];
+        float x = rect.x, y = rect.y, w = rect.w, h = rect.h;
+        if(!layValidateRead(ctx, stamp)) return false;
+        dst[0] = x;
+        dst[1] = y;
+        dst[2] = w;
+        dst[3] = h;
+        return true;
+    }
+
     public static float layGetRectX(@NotNull LayoutContext ctx, int id) {
         assert id >= 0 && id < ctx.count;
         return ctx.rects[id].x;
@@ -471,7 +1403,6 @@ public final class Layout {
     }
 
     static float layCalcOverlayedSize(@NotNull LayoutContext ctx, int item, int dim) {
-        final int wdim = dim + 2;
         LayoutItem pitem = layGetItem(ctx, item);
         float needSize = 0;
         int child = pitem.firstChild;
@@ -479,7 +1410,7 @@ public final class Layout {
             LayoutItem pchild = layGetItem(ctx, child);
             LayoutContext.LayoutRect rect = ctx.rects[child];
             // width = start margin + calculated margin + end margin
-            float childSize = rect.get(dim) + rect.get(2 + dim) + pchild.margins(wdim);
+            float childSize = rect.pos(dim) + rect.extent(dim) + pchild.marginEnd(dim);
             needSize = Math.max(needSize, childSize);
             child = pchild.nextSibling;
         }
@@ -487,33 +1418,41 @@ public final class Layout {
     }
 
     static float layCalcStackedSize(@NotNull LayoutContext ctx, int item, int dim) {
-        final int wdim = dim + 2;
         LayoutItem pitem = layGetItem(ctx, item);
+        // only rows and columns have gaps
+        final float gap = (pitem.flags & LAY_FLEX) != 0 ? pitem.gap() : 0F;
         float needSize = 0;
         int child = pitem.firstChild;
         while (child != LAY_INVALID_ID) {
             LayoutItem pchild = layGetItem(ctx, child);
             LayoutContext.LayoutRect rect = ctx.rects[child];
-            needSize += rect.get(dim) + rect.get(2 + dim) + pchild.margins(wdim);
+            if(gap != 0 && child != pitem.firstChild) {
+                needSize += gap;
+            }
+            needSize += rect.pos(dim) + rect.extent(dim) + pchild.marginEnd(dim);
             child = pchild.nextSibling;
         }
         return needSize;
     }
 
     static float layCalcWrappedOverlayedSize(@NotNull LayoutContext ctx, int item, int dim) {
-        final int wdim = dim + 2;
         LayoutItem pitem = layGetItem(ctx, item);
+        final LayoutLines lines = pitem.lines;
+        int line = 1;
+        int lineStart = _lineStart(lines, line);
         float needSize = 0F;
         float needSize2 = 0F;
         int child = pitem.firstChild;
         while (child != LAY_INVALID_ID) {
             LayoutItem pchild = layGetItem(ctx, child);
             LayoutContext.LayoutRect rect = ctx.rects[child];
-            if((pchild.flags & LAY_BREAK) > 0) {
+            if(child == lineStart) {
                 needSize2 += needSize;
+                needSize2 += pitem.crossGap();
                 needSize = 0;
+                lineStart = _lineStart(lines, ++line);
             }
-            float childSize = rect.get(dim) + rect.get(2 + dim) + pchild.margins(wdim);
+            float childSize = rect.pos(dim) + rect.extent(dim) + pchild.marginEnd(dim);
             needSize = Math.max(needSize, childSize);
             child = pchild.nextSibling;
         }
@@ -521,7 +1460,6 @@ public final class Layout {
     }
 
     static float layCalcWrappedStackedSize(@NotNull LayoutContext ctx, int item, int dim) {
-        final int wdim = dim + 2;
         LayoutItem pitem = layGetItem(ctx, item);
         float needSize = 0F;
         float needSize2 = 0F;
@@ -532,33 +1470,66 @@ public final class Layout {
             if((pchild.flags & LAY_BREAK) > 0) {
                 needSize2 = Math.max(needSize2, needSize);
                 needSize = 0F;
+            } else if(child != pitem.firstChild) {
+                needSize2 += pitem.gap();
             }
-            needSize2 += rect.get(dim) + rect.get(2 + dim) + pchild.margins(wdim);
+            needSize2 += rect.pos(dim) + rect.extent(dim) + pchild.marginEnd(dim);
             child = pchild.nextSibling;
         }
         return Math.max(needSize2, needSize);
     }
 
     public static void layCalcSize(@NotNull LayoutContext ctx, int item, int dim) {
-        LayoutItem pitem = layGetItem(ctx, item);
-
-        int child = pitem.firstChild;
+        if(ctx.sizeCache != null && _restoreCachedSize(ctx, item, dim)) {
+            return;
+        }
+        int child = layGetItem(ctx, item).firstChild;
         while (child != LAY_INVALID_ID) {
             layCalcSize(ctx, child, dim);
-            LayoutItem pchild = layGetItem(ctx, child);
-            child = pchild.nextSibling;
+            child = layGetItem(ctx, child).nextSibling;
+        }
+        layCalcItemSize(ctx, item, dim);
+        if(ctx.sizeCache != null) {
+            _cacheSize(ctx, item, dim);
+        }
+    }
+
+    /**
+     * Calculates size of a single item from already calculated sizes of its children
+     */
+    static void layCalcItemSize(@NotNull LayoutContext ctx, int item, int dim) {
+        LayoutItem pitem = layGetItem(ctx, item);
+
+        final boolean wrapped = (pitem.flags & LAY_WRAP) != 0 && (pitem.flags & LAY_FLEX) != 0
+                && (pitem.flags & 1) == dim;
+        if(wrapped) {
+            pitem = layGetItemMut(ctx, item);
+            ctx.wrapSeen = true;
+            if(pitem.lines == null) {
+                pitem.lines = new LayoutLines();
+            }
+            LayoutLines lines = pitem.lines;
+            lines.inputsLength = 0;
+            lines.ensureInputs(1);
+            lines.inputs[lines.inputsLength++] = Float.floatToIntBits(pitem.gap());
+            int child = pitem.firstChild;
+            while (child != LAY_INVALID_ID) {
+                LayoutItem pchild = layGetItem(ctx, child);
+                _linesInputs(ctx, lines, child, pchild, dim);
+                child = pchild.nextSibling;
+            }
         }
 
         // Set the mutable rect output data to the starting input data
-        ctx.rects[item].set(dim, pitem.margins(dim));
+        ctx.rects[item].setPos(dim, pitem.marginStart(dim));
 
         // If we have an explicit input size, just set our output size (which other
         // calcSize and arrange procedures will us) to it.
-        if (pitem.size(dim) != 0) {
+        if (pitem.axisSize(dim) != 0) {
             // however, an item might be allowed to grow, in which case should go on and compute the size
             if ((dim == 0 && (pitem.flags & LAY_HGROW) != LAY_HGROW)
                     || (dim == 1 && (pitem.flags & LAY_VGROW) != LAY_VGROW)) {
-                ctx.rects[item].set(2 + dim, pitem.size(dim));
+                ctx.rects[item].setExtent(dim, pitem.axisSize(dim));
                 return;
             }
         }
@@ -598,31 +1569,48 @@ public final class Layout {
                 break;
         }
 
+        // Children are placed within padding
+        if(pitem.spacing != null) {
+            calSize += pitem.paddingStart(dim) + pitem.paddingEnd(dim);
+        }
+
         // Item shouldn't shrink when limited by size
-        if(pitem.size(dim) != 0) {
+        if(pitem.axisSize(dim) != 0) {
             if (dim == 0 && (pitem.flags & LAY_HGROW) == LAY_HGROW) {
-                calSize = Math.max(pitem.size(dim), calSize);
+                calSize = Math.max(pitem.axisSize(dim), calSize);
             }
             if (dim == 1 && (pitem.flags & LAY_VGROW) == LAY_VGROW) {
-                calSize = Math.max(pitem.size(dim), calSize);
+                calSize = Math.max(pitem.axisSize(dim), calSize);
             }
         }
 
         // Set our output data size. Will be used by parent calc_size procedures.,
         // and by arrange procedures.
-        ctx.rects[item].set(2 + dim, calSize);
+        ctx.rects[item].setExtent(dim, calSize);
     }
 
     static void layArrangeStacked(@NotNull LayoutContext ctx, int item, int dim, boolean wrap) {
-        final int wdim = dim + 2;
-        LayoutItem pitem = layGetItem(ctx, item);
+        // wrapped containers update their lines
+        LayoutItem pitem = wrap ? layGetItemMut(ctx, item) : layGetItem(ctx, item);
 
         final int itemFlags = pitem.flags;
         LayoutContext.LayoutRect rect = ctx.rects[item];
-        float space = rect.get(2 + dim);
-
-        float maxX2 = rect.get(dim) + space;
+        final float start = rect.pos(dim) + pitem.paddingStart(dim);
+        float space = rect.extent(dim) - pitem.paddingStart(dim) - pitem.paddingEnd(dim);
+        final float gap = pitem.gap();
+
+        float maxX2 = start + space;
+
+        // lines can be reused if neither container size nor any of its children changed
+        final LayoutLines lines = wrap ? pitem.lines : null;
+        final boolean cached = lines != null && lines.valid
+                && lines.space == space && lines.inputsMatch();
+        if(lines != null && !cached) {
+            lines.valid = false;
+            lines.count = 0;
+        }
 
+        int line = 0;
         int startChild = pitem.firstChild;
         while (startChild != LAY_INVALID_ID) {
             float used = 0F;
@@ -630,40 +1618,56 @@ public final class Layout {
             int squeezedCount = 0; // count of squeezable elements
             int total = 0;
             boolean hardbreak = false;
-
-            // first pass: count items that need to be expanded,
-            // and the space that is used
-            int child = startChild;
+            int child;
             int endChild = LAY_INVALID_ID;
-            while (child != LAY_INVALID_ID) {
-                LayoutItem pchild = layGetItem(ctx, child);
-                final int childFlags = pchild.flags;
-                final int flags = (childFlags & LAY_ITEM_LAYOUT_MASK) >> dim;
-                final int fflags = (childFlags & LAY_ITEM_FIXED_MASK) >> dim;
-                LayoutContext.LayoutRect childRect = ctx.rects[child];
-                float extend = used;
-                if((flags & LAY_HFILL) == LAY_HFILL) {
-                    sumOfFillers += (pchild.flags & LAY_ITEM_GROW_SET) == LAY_ITEM_GROW_SET ? pchild.grow : 1F;
-                    extend += childRect.get(dim) + pchild.margins(wdim);
-                } else {
-                    if((fflags & LAY_ITEM_HFIXED) != LAY_ITEM_HFIXED) {
-                        ++squeezedCount;
+
+            if(cached) {
+                used = lines.used[line];
+                sumOfFillers = lines.fillers[line];
+                squeezedCount = lines.squeezed[line];
+                total = lines.total[line];
+                endChild = _lineStart(lines, line + 1);
+                hardbreak = endChild != LAY_INVALID_ID && (layGetItem(ctx, endChild).flags & LAY_BREAK) == LAY_BREAK;
+            } else {
+                // first pass: count items that need to be expanded,
+                // and the space that is used
+                child = startChild;
+                while (child != LAY_INVALID_ID) {
+                    LayoutItem pchild = layGetItem(ctx, child);
+                    final int childFlags = pchild.flags;
+                    final int flags = (childFlags & LAY_ITEM_LAYOUT_MASK) >> dim;
+                    final int fflags = (childFlags & LAY_ITEM_FIXED_MASK) >> dim;
+                    LayoutContext.LayoutRect childRect = ctx.rects[child];
+                    float extend = used;
+                    if(total > 0) {
+                        extend += gap;
+                    }
+                    if((flags & LAY_HFILL) == LAY_HFILL) {
+                        sumOfFillers += (pchild.flags & LAY_ITEM_GROW_SET) == LAY_ITEM_GROW_SET ? pchild.grow : 1F;
+                        extend += childRect.pos(dim) + pchild.marginEnd(dim);
+                    } else {
+                        if((fflags & LAY_ITEM_HFIXED) != LAY_ITEM_HFIXED) {
+                            ++squeezedCount;
+                        }
+                        extend += childRect.pos(dim) + childRect.extent(dim) + pchild.marginEnd(dim);
+                    }
+                    // wrap on end of line or manual flag
+                    if(wrap && (total > 0 && ((extend > space) || (childFlags & LAY_BREAK) > 0))) {
+                        endChild = child;
+                        hardbreak = (childFlags & LAY_BREAK) == LAY_BREAK;
+                        break;
+                    } else {
+                        used = extend;
+                        child = pchild.nextSibling;
                     }
-                    extend += childRect.get(dim) + childRect.get(2 + dim) + pchild.margins(wdim);
+                    ++total;
                 }
-                // wrap on end of line or manual flag
-                if(wrap && (total > 0 && ((extend > space) || (childFlags & LAY_BREAK) > 0))) {
-                    endChild = child;
-                    hardbreak = (childFlags & LAY_BREAK) == LAY_BREAK;
-                    // add marker for subsequent queries
-                    pchild.flags = childFlags | LAY_BREAK;
-                    break;
-                } else {
-                    used = extend;
-                    child = pchild.nextSibling;
+                if(lines != null) {
+                    // remember the line for subsequent passes and runs
+                    lines.add(startChild, used, sumOfFillers, squeezedCount, total);
                 }
-                ++total;
             }
+            line++;
 
             float extraSpace = space - used;
             float spacer = 0F;
@@ -695,7 +1699,7 @@ public final class Layout {
             }
 
             // distribute width among items
-            float x = rect.get(dim);
+            float x = start;
             float x1;
             // second pass: distribute and rescale
             child = startChild;
@@ -707,39 +1711,68 @@ public final class Layout {
                 final int fflags = (childFlags & LAY_ITEM_FIXED_MASK) >> dim;
                 LayoutContext.LayoutRect childRect = ctx.rects[child];
 
-                x += childRect.get(dim) + extraMargin;
+                x += childRect.pos(dim) + extraMargin;
                 if((flags & LAY_HFILL) == LAY_HFILL) { // grow
                     x1 = x + extraSpace * ((pchild.flags & LAY_ITEM_GROW_SET) == LAY_ITEM_GROW_SET ? pchild.grow : 1F) / sumOfFillers;
                 } else if((fflags & LAY_ITEM_HFIXED) == LAY_ITEM_HFIXED) {
-                    x1 = x + childRect.get(2 + dim);
+                    x1 = x + childRect.extent(dim);
                 } else { // squeeze
-                    x1 = x + Math.max(0.0F, childRect.get(2 + dim) + eater);
+                    x1 = x + Math.max(0.0F, childRect.extent(dim) + eater);
                 }
 
                 ix0 = x;
                 if(wrap) {
-                    ix1 = Math.min(maxX2 - pchild.margins(wdim), x1);
+                    ix1 = Math.min(maxX2 - pchild.marginEnd(dim), x1);
                 } else {
                     ix1 = x1;
                 }
 
-                childRect.set(dim, ix0); // pos
-                childRect.set(dim + 2, ix1 - ix0); // size
-                x = x1 + pchild.margins(wdim);
+                childRect.setPos(dim, ix0); // pos
+                childRect.setExtent(dim, ix1 - ix0); // size
+                x = x1 + pchild.marginEnd(dim) + gap;
                 child = pchild.nextSibling;
                 extraMargin = spacer;
             }
 
             startChild = endChild;
         }
+
+        if(lines != null && !cached) {
+            lines.valid = true;
+            lines.space = space;
+            lines.storeInputs();
+        }
+    }
+
+    /**
+     * Returns first child of a line with given index, or LAY_INVALID_ID if there's no such line
+     */
+    private static int _lineStart(LayoutLines lines, int line) {
+        return lines != null && line < lines.count ? lines.starts[line] : LAY_INVALID_ID;
+    }
+
+    /**
+     * Appends everything that line breaking of a child depends on to the inputs of the lines
+     */
+    private static void _linesInputs(@NotNull LayoutContext ctx, @NotNull LayoutLines lines, int child, @NotNull LayoutItem pchild, int dim) {
+        LayoutContext.LayoutRect rect = ctx.rects[child];
+        lines.ensureInputs(LINES_INPUTS_PER_CHILD);
+        final int[] inputs = lines.inputs;
+        int i = lines.inputsLength;
+        inputs[i++] = child;
+        inputs[i++] = pchild.flags & (LAY_ITEM_LAYOUT_MASK | LAY_ITEM_FIXED_MASK | LAY_ITEM_GROW_SET);
+        inputs[i++] = Float.floatToIntBits(pchild.grow);
+        inputs[i++] = Float.floatToIntBits(rect.pos(dim));
+        inputs[i++] = Float.floatToIntBits(rect.extent(dim));
+        inputs[i++] = Float.floatToIntBits(pchild.marginEnd(dim));
+        lines.inputsLength = i;
     }
 
     static void layArrangeOverlay(@NotNull LayoutContext ctx, int item, int dim) {
-        final int wdim = dim + 2;
         LayoutItem pitem = layGetItem(ctx, item);
         LayoutContext.LayoutRect rect = ctx.rects[item];
-        float offset = rect.get(dim);
-        float space = rect.get(2 + dim);
+        float offset = rect.pos(dim) + pitem.paddingStart(dim);
+        float space = rect.extent(dim) - pitem.paddingStart(dim) - pitem.paddingEnd(dim);
 
         int child = pitem.firstChild;
         while (child != LAY_INVALID_ID) {
@@ -749,73 +1782,76 @@ public final class Layout {
 
             switch (bFlags & LAY_HFILL) {
                 case LAY_HCENTER:
-                    float centerSize = childRect.get(dim) + (space - childRect.get(2 + dim)) / 2F - pchild.margins(wdim);
-                    childRect.set(dim, centerSize);
+                    float centerSize = childRect.pos(dim) + (space - childRect.extent(dim)) / 2F - pchild.marginEnd(dim);
+                    childRect.setPos(dim, centerSize);
                     break;
                 case LAY_RIGHT:
-                    float rightSize = childRect.get(dim) + space - childRect.get(2 + dim) - pchild.margins(dim) - pchild.margins(wdim);
-                    childRect.set(dim, rightSize);
+                    float rightSize = childRect.pos(dim) + space - childRect.extent(dim) - pchild.marginStart(dim) - pchild.marginEnd(dim);
+                    childRect.setPos(dim, rightSize);
                     break;
                 case LAY_HFILL:
-                    float fillSize = Math.max(0, space - childRect.get(dim) - pchild.margins(wdim));
-                    childRect.set(2 + dim, fillSize);
+                    float fillSize = Math.max(0, space - childRect.pos(dim) - pchild.marginEnd(dim));
+                    childRect.setExtent(dim, fillSize);
                     break;
                 default:
                     break;
             }
 
-            childRect.set(dim, childRect.get(dim) + offset);
+            childRect.setPos(dim, childRect.pos(dim) + offset);
             child = pchild.nextSibling;
         }
     }
 
     static void layArrangeOverlaySqueezedRange(@NotNull LayoutContext ctx, int dim, int startItem, int endItem, float offset, float space) {
-        int wdim = dim + 2;
         int item = startItem;
         while (item != endItem) {
             LayoutItem pitem = layGetItem(ctx, item);
             final int bFlags = (pitem.flags & LAY_ITEM_LAYOUT_MASK) >> dim;
             LayoutContext.LayoutRect rect = ctx.rects[item];
-            float minSize = Math.max(0, space - rect.get(dim) - pitem.margins(wdim));
+            float minSize = Math.max(0, space - rect.pos(dim) - pitem.marginEnd(dim));
             switch (bFlags & LAY_HFILL) {
                 case LAY_HCENTER:
-                    rect.set(2 + dim, Math.min(rect.get(2 + dim), minSize));
-                    rect.set(dim, rect.get(dim) + (space - rect.get(2 + dim)) / 2F - pitem.margins(wdim));
+                    rect.setExtent(dim, Math.min(rect.extent(dim), minSize));
+                    rect.setPos(dim, rect.pos(dim) + (space - rect.extent(dim)) / 2F - pitem.marginEnd(dim));
                     break;
                 case LAY_RIGHT:
-                    rect.set(2 + dim, Math.min(rect.get(2 + dim), minSize));
-                    rect.set(dim, space - rect.get(2 + dim) - pitem.margins(wdim));
+                    rect.setExtent(dim, Math.min(rect.extent(dim), minSize));
+                    rect.setPos(dim, space - rect.extent(dim) - pitem.marginEnd(dim));
                     break;
                 case LAY_HFILL:
-                    rect.set(2 + dim, minSize);
+                    rect.setExtent(dim, minSize);
                     break;
                 default:
-                    rect.set(2 + dim, Math.min(rect.get(2 + dim), minSize));
+                    rect.setExtent(dim, Math.min(rect.extent(dim), minSize));
                     break;
             }
 
-            rect.set(dim, rect.get(dim) + offset);
+            rect.setPos(dim, rect.pos(dim) + offset);
             item = pitem.nextSibling;
         }
     }
 
     static float layArrangeWrappedOverlaySqueezed(@NotNull LayoutContext ctx, int item, int dim) {
-        final int wdim = dim + 2;
         LayoutItem pitem = layGetItem(ctx, item);
-        float offset = ctx.rects[item].get(dim);
+        final LayoutLines lines = pitem.lines;
+        int line = 1;
+        int lineStart = _lineStart(lines, line);
+        float offset = ctx.rects[item].pos(dim) + pitem.paddingStart(dim);
         float needSize = 0F;
         int child = pitem.firstChild;
         int startChild = child;
         while (child != LAY_INVALID_ID) {
             LayoutItem pchild = layGetItem(ctx, child);
-            if((pchild.flags & LAY_BREAK) > 0) {
+            if(child == lineStart) {
                 layArrangeOverlaySqueezedRange(ctx, dim, startChild, child, offset, needSize);
                 offset += needSize;
+                offset += pitem.crossGap();
                 startChild = child;
                 needSize = 0F;
+                lineStart = _lineStart(lines, ++line);
             }
             LayoutContext.LayoutRect rect = ctx.rects[child];
-            float childSize = rect.get(dim) + rect.get(2 + dim) + pchild.margins(wdim);
+            float childSize = rect.pos(dim) + rect.extent(dim) + pchild.marginEnd(dim);
             needSize = Math.max(needSize, childSize);
             child = pchild.nextSibling;
         }
@@ -825,6 +1861,24 @@ public final class Layout {
     }
 
     public static void layArrange(@NotNull LayoutContext ctx, int item, int dim) {
+        layArrangeItem(ctx, item, dim);
+        int child = layGetItem(ctx, item).firstChild;
+        while (child != LAY_INVALID_ID) {
+            layArrange(ctx, child, dim);
+            LayoutItem pchild = layGetItem(ctx, child);
+            child = pchild.nextSibling;
+        }
+
+        // vertical pass is the last one, rects of the whole subtree are final at this point
+        if(dim == 1 && ctx.bounds != null) {
+            layUpdateBounds(ctx, item);
+        }
+    }
+
+    /**
+     * Arranges children of a single item within its already arranged rect
+     */
+    static void layArrangeItem(@NotNull LayoutContext ctx, int item, int dim) {
         LayoutItem pitem = layGetItem(ctx, item);
 
         final int flags = pitem.flags;
@@ -833,8 +1887,8 @@ public final class Layout {
             case LAY_COLUMN | LAY_WRAP:
                 if(dim != 0) {
                     layArrangeStacked(ctx, item, 1, true);
-                    float offset = layArrangeWrappedOverlaySqueezed(ctx, item, 0);
-                    ctx.rects[item].set(2, offset - ctx.rects[item].get(0));
+                    float offset = layArrangeWrappedOverlaySqueezed(ctx, item, 0) + pitem.paddingEnd(0);
+                    ctx.rects[item].setExtent(0, offset - ctx.rects[item].pos(0));
                 }
                 break;
             case LAY_ROW | LAY_WRAP:
@@ -851,26 +1905,520 @@ public final class Layout {
                     layArrangeStacked(ctx, item, dim, false);
                 } else {
                     LayoutContext.LayoutRect rect = ctx.rects[item];
-                    layArrangeOverlaySqueezedRange(ctx, dim, pitem.firstChild, LAY_INVALID_ID, rect.get(dim), rect.get(2 + dim));
+                    layArrangeOverlaySqueezedRange(ctx, dim, pitem.firstChild, LAY_INVALID_ID,
+                            rect.pos(dim) + pitem.paddingStart(dim), rect.extent(dim) - pitem.paddingStart(dim) - pitem.paddingEnd(dim));
                 }
                 break;
             default:
                 layArrangeOverlay(ctx, item, dim);
                 break;
         }
+        if(ctx.snapRects != null) {
+            laySnapRect(ctx, item, dim);
+            if((flags & LAY_ITEM_BOX_MODEL_MASK) == (LAY_COLUMN | LAY_WRAP) && dim != 0) {
+                // wrapped columns change their width, and horizontal position and width of their
+                // children, during vertical pass
+                laySnapRect(ctx, item, 0);
+                int child = pitem.firstChild;
+                while (child != LAY_INVALID_ID) {
+                    laySnapRect(ctx, child, 0);
+                    child = layGetItem(ctx, child).nextSibling;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets scroll offset of a container. Scrolling shifts all descendants of the item
+     * (but not the item itself) by negated offset. Offset is not a part of layout
+     * calculations and is applied only when rectangles are queried with
+     * lay_query_scrolled, so changing it doesn't require running layout again.
+     * Once scroll has been set, the item is treated as a scroll container which clips its
+     * content: descendants outside of its rectangle are considered invisible.
+     */
+    public static void laySetScroll(@NotNull LayoutContext ctx, int item, float x, float y) {
+        if(ctx.recorder != null) ctx.recorder.record(LayoutRecorder.OP_SET_SCROLL, item, x, y);
+        LayoutItem pitem = layGetItemMut(ctx, item);
+        pitem.scrollX = x;
+        pitem.scrollY = y;
+        pitem.scrollable = true;
+    }
+
+    /**
+     * Gets the horizontal scroll offset of an item that was set with setScroll
+     */
+    public static float layGetScrollX(@NotNull LayoutContext ctx, int item) {
+        return layGetItem(ctx, item).scrollX;
+    }
+
+    /**
+     * Gets the vertical scroll offset of an item that was set with setScroll
+     */
+    public static float layGetScrollY(@NotNull LayoutContext ctx, int item) {
+        return layGetItem(ctx, item).scrollY;
+    }
+
+    /**
+     * Enables or disables calculation of subtree bounds. When enabled, vertical pass of
+     * lay_arrange will additionally calculate the bounding box of every item together with all
+     * of its descendants, which is used to skip whole subtrees when querying visible items.
+     * Contents of scroll containers are not included in the bounds of their ancestors.
+     */
+    public static void laySetSubtreeBounds(@NotNull LayoutContext ctx, boolean enabled) {
+        if(!enabled) {
+            ctx.bounds = null;
+        } else if(ctx.bounds == null) {
+            ctx.bounds = new LayoutContext.LayoutRect[ctx.capacity];
+            for(int i = 0; i < ctx.capacity; i++) {
+                ctx.bounds[i] = new LayoutContext.LayoutRect();
+            }
+        }
+    }
+
+    /**
+     * Enables or disables caching of sizes calculated by lay_calc_size. When enabled, sizes of
+     * items are kept between runs and only recalculated for items which have been changed since
+     * the last run, and for their ancestors. Calculated size of an item never depends on its
+     * ancestors, so e.g. when only size of the root item changes between runs, sizes of the rest
+     * are copied from the cache and only arrangement is done again. The exception are vertical
+     * sizes of wrapped rows and their ancestors, which depend on where lines are broken, and so
+     * are always calculated.
+     * Cache takes 17 bytes per item. Items must only be changed with lay_* procedures while the
+     * cache is enabled.
+     */
+    public static void laySetSizeCache(@NotNull LayoutContext ctx, boolean enabled) {
+        if(!enabled) {
+            ctx.sizeCache = null;
+            ctx.sizeCacheState = null;
+        } else if(ctx.sizeCache == null) {
+            ctx.sizeCache = new float[ctx.capacity * 4];
+            ctx.sizeCacheState = new byte[ctx.capacity];
+        }
+    }
+
+    /**
+     * Marks cached sizes of an item and all of its ancestors as outdated
+     */
+    private static void _invalidateSize(@NotNull LayoutContext ctx, int item) {
+        final byte[] state = ctx.sizeCacheState;
+        while (item != LAY_INVALID_ID) {
+            // ancestors of an item which isn't cached can't be cached either
+            if((state[item] & (SIZE_CACHED_X | SIZE_CACHED_Y)) == 0) break;
+            state[item] &= ~(SIZE_CACHED_X | SIZE_CACHED_Y);
+            item = layGetItem(ctx, item).parent;
+        }
+    }
+
+    private static void _cacheSize(@NotNull LayoutContext ctx, int item, int dim) {
+        final byte[] state = ctx.sizeCacheState;
+        LayoutContext.LayoutRect rect = ctx.rects[item];
+        ctx.sizeCache[item * 4 + dim * 2] = rect.pos(dim);
+        ctx.sizeCache[item * 4 + dim * 2 + 1] = rect.extent(dim);
+        if(dim == 0) {
+            LayoutItem pitem = layGetItem(ctx, item);
+            boolean dependent = (pitem.flags & LAY_ITEM_BOX_MODEL_MASK) == (LAY_ROW | LAY_WRAP);
+            int child = pitem.firstChild;
+            while (child != LAY_INVALID_ID && !dependent) {
+                dependent = (state[child] & SIZE_WIDTH_DEPENDENT) != 0;
+                child = layGetItem(ctx, child).nextSibling;
+            }
+            state[item] = (byte) (dependent ? (state[item] | SIZE_CACHED_X | SIZE_WIDTH_DEPENDENT)
+                    : (state[item] | SIZE_CACHED_X) & ~SIZE_WIDTH_DEPENDENT);
+        } else if((state[item] & SIZE_WIDTH_DEPENDENT) == 0) {
+            state[item] |= SIZE_CACHED_Y;
+        }
+    }
+
+    /**
+     * Copies cached sizes of an item and all of its descendants into their rects,
+     * if the item is cached. Returns false otherwise.
+     */
+    private static boolean _restoreCachedSize(@NotNull LayoutContext ctx, int item, int dim) {
+        final int state = ctx.sizeCacheState[item];
+        if((state & (dim == 0 ? SIZE_CACHED_X : SIZE_CACHED_Y)) == 0) {
+            return false;
+        }
+        if((state & SIZE_WIDTH_DEPENDENT) != 0) {
+            ctx.wrapSeen = true;
+        }
+        _restoreSize(ctx, item, dim);
+        return true;
+    }
+
+    private static void _restoreSize(@NotNull LayoutContext ctx, int item, int dim) {
+        LayoutContext.LayoutRect rect = ctx.rects[item];
+        rect.setPos(dim, ctx.sizeCache[item * 4 + dim * 2]);
+        rect.setExtent(dim, ctx.sizeCache[item * 4 + dim * 2 + 1]);
+        int child = layGetItem(ctx, item).firstChild;
+        while (child != LAY_INVALID_ID) {
+            _restoreSize(ctx, child, dim);
+            child = layGetItem(ctx, child).nextSibling;
+        }
+    }
+
+    /**
+     * Returns the calculated bounding box of an item and all of its descendants. This is only
+     * valid if subtree bounds were enabled with lay_set_subtree_bounds before running the
+     * layout. Output will be written to given array which should have a size of at least 4 elements.
+     */
+    public static float[] layGetSubtreeBounds(@NotNull LayoutContext ctx, int id, float[] dst) {
+        assert id >= 0 && id < ctx.count;
+        assert ctx.bounds != null;
+        assert dst.length >= 4;
+        LayoutContext.LayoutRect rect = ctx.bounds[id];
+        dst[0] = rect.x;
+        dst[1] = rect.y;
+        dst[2] = rect.w;
+        dst[3] = rect.h;
+        return dst;
+    }
+
+    /**
+     * Collects items whose rectangles intersect the given viewport, with scroll offsets of all
+     * ancestor containers applied. Subtrees which are completely outside the viewport or outside
+     * of their scroll container are skipped without visiting them, so cost of the query depends on
+     * the number of visible items rather than the size of the tree. Children of long rows and
+     * columns are indexed on the first query after a layout run, so that children before and after
+     * the viewport are skipped with a binary search and an early stop, e.g. when querying a scrolled
+     * list repeatedly. Descendants which overflow their ancestors in either direction, e.g. with
+     * negative margins, are still found.
+     * Subtree bounds should be enabled with lay_set_subtree_bounds.
+     * The viewport array components are x, y, width and height. Ids of visible items are written
+     * to `ids` and their scrolled rectangles to `rects`, with 4 elements per item. Returns the
+     * number of visible items, which might be greater than the size of the output buffers, in
+     * which case only the first items were written.
+     *
+     * @throws IllegalStateException if subtree bounds are not enabled
+     */
+    public static int layQueryScrolled(@NotNull LayoutContext ctx, float[] viewport, int[] ids, float[] rects) {
+        if(ctx.bounds == null) {
+            throw new IllegalStateException("Subtree bounds must be enabled to query visible items");
+        }
+        assert viewport.length >= 4;
+        if(ctx.count == 0) return 0;
+        return layQueryScrolledItem(ctx, 0, 0F, 0F,
+                viewport[0], viewport[1], viewport[0] + viewport[2], viewport[1] + viewport[3],
+                ids, rects, 0);
+    }
+
+    /**
+     * Collects ids of items whose rectangles intersect the given viewport, skipping whole subtrees
+     * which are outside of it. This is the same as lay_query_scrolled, but without writing
+     * rectangles. Returns the number of visible items, which might be greater than the size of the
+     * output buffer, in which case only the first items were written.
+     *
+     * @throws IllegalStateException if subtree bounds are not enabled
+     */
+    public static int layQueryVisible(@NotNull LayoutContext ctx, float[] viewport, int[] dst) {
+        return layQueryScrolled(ctx, viewport, dst, null);
+    }
+
+    static int layQueryScrolledItem(@NotNull LayoutContext ctx, int item, float ox, float oy,
+                                    float cx0, float cy0, float cx1, float cy1,
+                                    int[] ids, float[] rects, int count) {
+        LayoutItem pitem = layGetItem(ctx, item);
+        LayoutContext.LayoutRect rect = ctx.rects[item];
+        float x0 = rect.x + ox;
+        float y0 = rect.y + oy;
+        float x1 = x0 + rect.w;
+        float y1 = y0 + rect.h;
+        if(x0 <= cx1 && x1 >= cx0 && y0 <= cy1 && y1 >= cy0) {
+            if(count < ids.length) {
+                ids[count] = item;
+            }
+            if(rects != null && count * 4 + 3 < rects.length) {
+                rects[count * 4] = x0;
+                rects[count * 4 + 1] = y0;
+                rects[count * 4 + 2] = rect.w;
+                rects[count * 4 + 3] = rect.h;
+            }
+            count++;
+        }
+
+        if(pitem.scrollable) {
+            ox -= pitem.scrollX;
+            oy -= pitem.scrollY;
+            cx0 = Math.max(cx0, x0);
+            cy0 = Math.max(cy0, y0);
+            cx1 = Math.min(cx1, x1);
+            cy1 = Math.min(cy1, y1);
+            if(cx0 > cx1 || cy0 > cy1) return count;
+        }
+
+        final int model = pitem.flags & LAY_ITEM_BOX_MODEL_MASK;
+        final int stackDim = (model == LAY_ROW || model == LAY_COLUMN) ? (model & 1) : -1;
+        if(stackDim >= 0) {
+            LayoutContext.StackIndex index = _stackIndex(ctx, item, pitem, stackDim);
+            if(index != null) {
+                // children which end before the viewport start, with all of their preceding siblings
+                final float start = stackDim == 0 ? cx0 - ox : cy0 - oy;
+                final float[] reach = index.reach;
+                int lo = 0;
+                int hi = index.length;
+                while (lo < hi) {
+                    final int mid = (lo + hi) >>> 1;
+                    if(reach[mid] < start) lo = mid + 1;
+                    else hi = mid;
+                }
+                // children which start after the viewport end, with all of their following siblings
+                final float end = stackDim == 0 ? cx1 - ox : cy1 - oy;
+                final float[] floor = index.floor;
+                for(int i = lo; i < index.length && floor[i] <= end; i++) {
+                    final int indexed = index.children[i];
+                    LayoutContext.LayoutRect b = ctx.bounds[indexed];
+                    float bx0 = b.x + ox;
+                    float by0 = b.y + oy;
+                    if(bx0 <= cx1 && bx0 + b.w >= cx0 && by0 <= cy1 && by0 + b.h >= cy0) {
+                        count = layQueryScrolledItem(ctx, indexed, ox, oy, cx0, cy0, cx1, cy1, ids, rects, count);
+                    }
+                }
+                return count;
+            }
+        }
         int child = pitem.firstChild;
         while (child != LAY_INVALID_ID) {
-            layArrange(ctx, child, dim);
-            LayoutItem pchild = layGetItem(ctx, child);
-            child = pchild.nextSibling;
+            LayoutContext.LayoutRect b = ctx.bounds[child];
+            float bx0 = b.x + ox;
+            float by0 = b.y + oy;
+            if(bx0 <= cx1 && bx0 + b.w >= cx0 && by0 <= cy1 && by0 + b.h >= cy0) {
+                count = layQueryScrolledItem(ctx, child, ox, oy, cx0, cy0, cx1, cy1, ids, rects, count);
+            }
+            child = layGetItem(ctx, child).nextSibling;
+        }
+        return count;
+    }
+
+    /**
+     * Returns index of children of a row or column, building it if the tree or its layout has
+     * changed since it was built, or null if the container has too few children to index
+     */
+    private static LayoutContext.StackIndex _stackIndex(@NotNull LayoutContext ctx, int item, @NotNull LayoutItem pitem, int dim) {
+        if(ctx.stackIndices == null || ctx.stackIndices.length < ctx.count) {
+            ctx.stackIndices = ctx.stackIndices == null
+                    ? new LayoutContext.StackIndex[ctx.capacity]
+                    : Arrays.copyOf(ctx.stackIndices, ctx.capacity);
+        }
+        LayoutContext.StackIndex index = ctx.stackIndices[item];
+        final long sequence = ctx.sequence;
+        if(index != null && index.sequence == sequence && index.structure == ctx.structure) {
+            return index.length < 0 ? null : index;
+        }
+        if(index == null) {
+            index = ctx.stackIndices[item] = new LayoutContext.StackIndex();
+        }
+        index.sequence = sequence;
+        index.structure = ctx.structure;
+
+        int length = 0;
+        for(int child = pitem.firstChild; child != LAY_INVALID_ID; child = layGetItem(ctx, child).nextSibling) {
+            length++;
+        }
+        if(length < LAY_STACK_INDEX_MIN_CHILDREN) {
+            index.length = -1;
+            return null;
+        }
+        if(index.children.length < length) {
+            index.children = new int[length];
+            index.reach = new float[length];
+            index.floor = new float[length];
+        }
+        float reach = Float.NEGATIVE_INFINITY;
+        int i = 0;
+        for(int child = pitem.firstChild; child != LAY_INVALID_ID; child = layGetItem(ctx, child).nextSibling) {
+            LayoutContext.LayoutRect b = ctx.bounds[child];
+            reach = Math.max(reach, b.pos(dim) + b.extent(dim));
+            index.children[i] = child;
+            index.reach[i] = reach;
+            i++;
+        }
+        float floor = Float.POSITIVE_INFINITY;
+        for(i = length - 1; i >= 0; i--) {
+            LayoutContext.LayoutRect b = ctx.bounds[index.children[i]];
+            floor = Math.min(floor, b.pos(dim));
+            index.floor[i] = floor;
+        }
+        index.length = length;
+        return index;
+    }
+
+    /**
+     * Calculates bounds of an item from its rect and bounds of its children,
+     * which should be already up-to-date
+     */
+    static void layUpdateBounds(@NotNull LayoutContext ctx, int item) {
+        LayoutItem pitem = layGetItem(ctx, item);
+        LayoutContext.LayoutRect rect = ctx.rects[item];
+        float x0 = rect.x;
+        float y0 = rect.y;
+        float x1 = rect.x + rect.w;
+        float y1 = rect.y + rect.h;
+        int child = pitem.scrollable ? LAY_INVALID_ID : pitem.firstChild;
+        while (child != LAY_INVALID_ID) {
+            LayoutContext.LayoutRect b = ctx.bounds[child];
+            x0 = Math.min(x0, b.x);
+            y0 = Math.min(y0, b.y);
+            x1 = Math.max(x1, b.x + b.w);
+            y1 = Math.max(y1, b.y + b.h);
+            child = layGetItem(ctx, child).nextSibling;
+        }
+        LayoutContext.LayoutRect bounds = ctx.bounds[item];
+        bounds.x = x0;
+        bounds.y = y0;
+        bounds.w = x1 - x0;
+        bounds.h = y1 - y0;
+    }
+
+    /**
+     * Returns the number of bytes written per item by lay_emit_draw_list with given format
+     */
+    public static int layDrawItemBytes(int format) {
+        int vertexBytes = (format & LAY_DRAW_TRIANGLES) != 0 ? 2 * 4 : 4 * 4;
+        if((format & LAY_DRAW_ITEM_ID) != 0) vertexBytes += 4;
+        if((format & LAY_DRAW_USER_FLAGS) != 0) vertexBytes += 4;
+        return (format & LAY_DRAW_TRIANGLES) != 0 ? vertexBytes * 6 : vertexBytes;
+    }
+
+    /**
+     * Writes calculated rectangles of an item and all of its descendants into given buffer
+     * in paint order (depth-first, parents before children), ready to be uploaded to the GPU.
+     * Format is a combination of LAY_DRAW_* flags, see lay_draw_item_bytes for the size of
+     * each item. Values are written starting at the current position of the buffer using its
+     * byte order, and position is advanced past the written data. Returns the number of
+     * items written. Scroll offsets of containers are applied to their descendants, the same
+     * way as by lay_query_scrolled, including offsets of the ancestors of the given item.
+     *
+     * @throws java.nio.BufferOverflowException if buffer doesn't have enough space remaining
+     */
+    public static int layEmitDrawList(@NotNull LayoutContext ctx, int item, @NotNull ByteBuffer dst, int format) {
+        assert item >= 0 && item < ctx.count;
+        final boolean triangles = (format & LAY_DRAW_TRIANGLES) != 0;
+        final boolean writeId = (format & LAY_DRAW_ITEM_ID) != 0;
+        final boolean writeFlags = (format & LAY_DRAW_USER_FLAGS) != 0;
+        final boolean skipEmpty = (format & LAY_DRAW_SKIP_EMPTY) != 0;
+
+        // scroll offset of the current item, made of offsets of all of its ancestors
+        float ox = 0F;
+        float oy = 0F;
+        for(int parent = layGetItem(ctx, item).parent; parent != LAY_INVALID_ID; parent = layGetItem(ctx, parent).parent) {
+            LayoutItem pparent = layGetItem(ctx, parent);
+            if(pparent.scrollable) {
+                ox -= pparent.scrollX;
+                oy -= pparent.scrollY;
+            }
+        }
+
+        int written = 0;
+        int current = item;
+        // walk the tree without recursion, going back up by parent links
+        while (current != LAY_INVALID_ID) {
+            LayoutItem pitem = layGetItem(ctx, current);
+            LayoutContext.LayoutRect rect = ctx.rects[current];
+            if(!skipEmpty || (rect.w > 0 && rect.h > 0)) {
+                int flags = pitem.flags & LAY_USERMASK;
+                final float x = rect.x + ox;
+                final float y = rect.y + oy;
+                if(triangles) {
+                    float x0 = x, y0 = y;
+                    float x1 = x + rect.w, y1 = y + rect.h;
+                    _putVertex(dst, x0, y0, current, flags, writeId, writeFlags);
+                    _putVertex(dst, x1, y0, current, flags, writeId, writeFlags);
+                    _putVertex(dst, x1, y1, current, flags, writeId, writeFlags);
+                    _putVertex(dst, x0, y0, current, flags, writeId, writeFlags);
+                    _putVertex(dst, x1, y1, current, flags, writeId, writeFlags);
+                    _putVertex(dst, x0, y1, current, flags, writeId, writeFlags);
+                } else {
+                    dst.putFloat(x).putFloat(y).putFloat(rect.w).putFloat(rect.h);
+                    if(writeId) dst.putInt(current);
+                    if(writeFlags) dst.putInt(flags);
+                }
+                written++;
+            }
+
+            if(pitem.firstChild != LAY_INVALID_ID) {
+                if(pitem.scrollable) {
+                    ox -= pitem.scrollX;
+                    oy -= pitem.scrollY;
+                }
+                current = pitem.firstChild;
+                continue;
+            }
+            while (current != item && layGetItem(ctx, current).nextSibling == LAY_INVALID_ID) {
+                current = layGetItem(ctx, current).parent;
+                // leaving children of a scroll container
+                LayoutItem pparent = layGetItem(ctx, current);
+                if(pparent.scrollable) {
+                    ox += pparent.scrollX;
+                    oy += pparent.scrollY;
+                }
+            }
+            current = current == item ? LAY_INVALID_ID : layGetItem(ctx, current).nextSibling;
         }
+        return written;
+    }
+
+    private static void _putVertex(@NotNull ByteBuffer dst, float x, float y, int id, int flags, boolean writeId, boolean writeFlags) {
+        dst.putFloat(x).putFloat(y);
+        if(writeId) dst.putInt(id);
+        if(writeFlags) dst.putInt(flags);
+    }
+
+    /**
+     * Starts recording every mutating call made on the context into given recorder.
+     * Pass null to stop recording.
+     * @see LayoutRecorder
+     */
+    public static void laySetRecorder(@NotNull LayoutContext ctx, LayoutRecorder recorder) {
+        ctx.recorder = recorder;
+    }
+
+    /**
+     * Enables pixel snapped output. When enabled, lay_arrange will additionally write
+     * integer rectangles of every item it visits into the given array, with 4 elements
+     * per item (x, y, width, height) at offset id * 4. Coordinates are multiplied by
+     * the scale factor (device pixels per layout unit) before snapping.
+     * Rather than rounding positions and sizes independently, both edges of an item are
+     * rounded and the size is taken as their difference. This way rounding error is
+     * spread across siblings and edges which touch in float output still touch in the
+     * snapped output, leaving no 1px gaps.
+     * The array should have size of at least 4 * items count by the time layout is run.
+     * Pass null to disable snapping.
+     */
+    public static void laySetPixelSnapping(@NotNull LayoutContext ctx, float scale, int[] dst) {
+        assert scale > 0;
+        ctx.snapScale = scale;
+        ctx.snapRects = dst;
+    }
+
+    /**
+     * Returns the pixel snapped rectangle of an item. This is only valid if pixel snapping
+     * was enabled with lay_set_pixel_snapping before running the layout. Output will be
+     * written to given array which should have a size of at least 4 elements.
+     */
+    public static int[] layGetSnappedRect(@NotNull LayoutContext ctx, int id, int[] dst) {
+        assert id >= 0 && id < ctx.count;
+        assert ctx.snapRects != null;
+        assert dst.length >= 4;
+        System.arraycopy(ctx.snapRects, id * 4, dst, 0, 4);
+        return dst;
+    }
 
+    static void laySnapRect(@NotNull LayoutContext ctx, int item, int dim) {
+        final float scale = ctx.snapScale;
+        LayoutContext.LayoutRect rect = ctx.rects[item];
+        float start = rect.pos(dim);
+        int i0 = (int) Math.floor(start * scale + 0.5F);
+        int i1 = (int) Math.floor((start + rect.extent(dim)) * scale + 0.5F);
+        int[] dst = ctx.snapRects;
+        dst[item * 4 + dim] = i0;
+        dst[item * 4 + 2 + dim] = i1 - i0;
     }
 
     private static void _clearItem(@NotNull LayoutItem item) {
         item.flags = 0;
         item.firstChild = 0;
         item.nextSibling = 0;
+        item.parent = 0;
+        item.prevSibling = 0;
         item.marginLeft = 0.0F;
         item.marginTop = 0.0F;
         item.marginRight = 0.0F;
@@ -878,6 +2426,14 @@ public final class Layout {
         item.sizeX = 0.0F;
         item.sizeY = 0.0F;
         item.grow = 0F;
+        item.scrollX = 0.0F;
+        item.scrollY = 0.0F;
+        item.scrollable = false;
+        if(item.lines != null) {
+            item.lines.valid = false;
+            item.lines.count = 0;
+        }
+        item.spacing = null;
     }
 
     private static void _clearRect(@NotNull LayoutContext.LayoutRect rect) {
@@ -885,17 +2441,52 @@ public final class Layout {
     }
 
 
+    /**
+     * Besides child and sibling links, every item keeps links to its parent and previous
+     * sibling, so that navigating upwards doesn't require scanning from the root. These
+     * take 8 additional bytes per item.
+     */
     public static final class LayoutItem {
 
         int flags;
         int firstChild;
         int nextSibling;
+        int parent;
+        int prevSibling;
         float marginLeft, marginTop, marginRight, marginBottom;
         float sizeX, sizeY;
         float grow;
+        float scrollX, scrollY;
+        boolean scrollable;
+        // line breaking results, only for wrapped containers
+        LayoutLines lines;
+        // padding and gaps, only for containers which have them set
+        LayoutSpacing spacing;
 
         LayoutItem() {}
 
+        LayoutItem copy() {
+            LayoutItem copy = new LayoutItem();
+            copy.flags = flags;
+            copy.firstChild = firstChild;
+            copy.nextSibling = nextSibling;
+            copy.parent = parent;
+            copy.prevSibling = prevSibling;
+            copy.marginLeft = marginLeft;
+            copy.marginTop = marginTop;
+            copy.marginRight = marginRight;
+            copy.marginBottom = marginBottom;
+            copy.sizeX = sizeX;
+            copy.sizeY = sizeY;
+            copy.grow = grow;
+            copy.scrollX = scrollX;
+            copy.scrollY = scrollY;
+            copy.scrollable = scrollable;
+            copy.lines = lines != null ? lines.copy() : null;
+            copy.spacing = spacing != null ? spacing.copy() : null;
+            return copy;
+        }
+
         public float margins(int i) {
             switch (i) {
                 case 0: return marginLeft;
@@ -913,5 +2504,152 @@ public final class Layout {
                 default: throw new IllegalArgumentException("Invalid index for accessing layout item size component, should be [0;1], given: " + i);
             }
         }
+
+        public float padding(int i) {
+            if(spacing == null) return 0F;
+            switch (i) {
+                case 0: return spacing.paddingLeft;
+                case 1: return spacing.paddingTop;
+                case 2: return spacing.paddingRight;
+                case 3: return spacing.paddingBottom;
+                default: throw new IllegalArgumentException("Invalid index for accessing layout item padding component, should be [0;3], given: " + i);
+            }
+        }
+
+        /**
+         * Space between neighbouring children along the direction of a row or column
+         */
+        public float gap() {
+            return spacing != null ? spacing.gap : 0F;
+        }
+
+        /**
+         * Space between lines of a wrapped row or column
+         */
+        public float crossGap() {
+            return spacing != null ? spacing.crossGap : 0F;
+        }
+
+        // Accessors by dimension (0 or 1) for the layout procedures. Unlike the index based ones
+        // above they have no switch and no throwing path, so they are small enough to be always
+        // inlined, and the JIT can hoist the dimension check out of the loops calling them.
+
+        float marginStart(int dim) {
+            return dim == 0 ? marginLeft : marginTop;
+        }
+
+        float marginEnd(int dim) {
+            return dim == 0 ? marginRight : marginBottom;
+        }
+
+        float axisSize(int dim) {
+            return dim == 0 ? sizeX : sizeY;
+        }
+
+        float paddingStart(int dim) {
+            if(spacing == null) return 0F;
+            return dim == 0 ? spacing.paddingLeft : spacing.paddingTop;
+        }
+
+        float paddingEnd(int dim) {
+            if(spacing == null) return 0F;
+            return dim == 0 ? spacing.paddingRight : spacing.paddingBottom;
+        }
+    }
+
+    /**
+     * Padding and gaps of a container
+     */
+    static final class LayoutSpacing {
+        float paddingLeft, paddingTop, paddingRight, paddingBottom;
+        float gap, crossGap;
+
+        LayoutSpacing copy() {
+            LayoutSpacing copy = new LayoutSpacing();
+            copy.paddingLeft = paddingLeft;
+            copy.paddingTop = paddingTop;
+            copy.paddingRight = paddingRight;
+            copy.paddingBottom = paddingBottom;
+            copy.gap = gap;
+            copy.crossGap = crossGap;
+            return copy;
+        }
+    }
+
+    /**
+     * Lines which children of a wrapped container were broken into, together with values calculated
+     * for each line by the first pass of lay_arrange_stacked. Lines are kept between runs and reused
+     * while container size and inputs of its children stay the same. Inputs are compared exactly
+     * rather than by a hash, so that a collision can't bring back lines of another tree.
+     */
+    static final class LayoutLines {
+        int count;
+        int[] starts = new int[4];
+        float[] used = new float[4];
+        float[] fillers = new float[4];
+        int[] squeezed = new int[4];
+        int[] total = new int[4];
+
+        boolean valid;
+        float space;
+        // inputs gathered by the latest lay_calc_size: gap, then child id, flags, grow, position,
+        // size and end margin of every child
+        int[] inputs = new int[LINES_INPUTS_PER_CHILD * 4 + 1];
+        int inputsLength;
+        // inputs which the lines were broken with
+        int[] brokenInputs = new int[0];
+        int brokenInputsLength;
+
+        LayoutLines copy() {
+            LayoutLines copy = new LayoutLines();
+            copy.count = count;
+            copy.starts = starts.clone();
+            copy.used = used.clone();
+            copy.fillers = fillers.clone();
+            copy.squeezed = squeezed.clone();
+            copy.total = total.clone();
+            copy.valid = valid;
+            copy.space = space;
+            copy.inputs = inputs.clone();
+            copy.inputsLength = inputsLength;
+            copy.brokenInputs = brokenInputs.clone();
+            copy.brokenInputsLength = brokenInputsLength;
+            return copy;
+        }
+
+        void ensureInputs(int more) {
+            if(inputsLength + more > inputs.length) {
+                inputs = Arrays.copyOf(inputs, Math.max(inputs.length * 2, inputsLength + more));
+            }
+        }
+
+        boolean inputsMatch() {
+            return Arrays.equals(inputs, 0, inputsLength, brokenInputs, 0, brokenInputsLength);
+        }
+
+        void storeInputs() {
+            if(brokenInputs.length < inputsLength) {
+                brokenInputs = new int[inputs.length];
+            }
+            System.arraycopy(inputs, 0, brokenInputs, 0, inputsLength);
+            brokenInputsLength = inputsLength;
+        }
+
+        void add(int start, float used, float fillers, int squeezed, int total) {
+            if(count == starts.length) {
+                int capacity = count * 2;
+                this.starts = Arrays.copyOf(this.starts, capacity);
+                this.used = Arrays.copyOf(this.used, capacity);
+                this.fillers = Arrays.copyOf(this.fillers, capacity);
+                this.squeezed = Arrays.copyOf(this.squeezed, capacity);
+                this.total = Arrays.copyOf(this.total, capacity);
+            }
+            this.starts[count] = start;
+            this.used[count] = used;
+            this.fillers[count] = fillers;
+            this.squeezed[count] = squeezed;
+            this.total[count] = total;
+            count++;
+        }
     }
 }
@@ -0,0 +1,80 @@
+package io.github.layout;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Runs layout of many independent contexts concurrently.
+ * <p>
+ * Contexts are grouped into tasks of roughly equal total item count, so that a few large
+ * documents don't end up queued behind each other while small ones are run one task per context.
+ * Largest tasks are submitted first. By default tasks are run on the common work-stealing pool,
+ * but any executor can be used, e.g. a virtual thread per task executor where available.
+ * <p>
+ * A context must not be used by other threads while its layout is running.
+ */
+@SuppressWarnings("unused")
+public final class LayoutBatchExecutor {
+
+    private final Executor executor;
+    private final int parallelism;
+
+    public LayoutBatchExecutor() {
+        this(ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism());
+    }
+
+    /**
+     * @param executor executor which runs layout tasks
+     * @param parallelism number of tasks which executor can run at the same time, used to decide
+     *                    how many tasks the work should be split into
+     */
+    public LayoutBatchExecutor(@NotNull Executor executor, int parallelism) {
+        assert parallelism > 0;
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Runs lay_run_context on every given context. Returns a future which completes when all layouts
+     * are done, or completes exceptionally with the first failure.
+     */
+    public @NotNull CompletableFuture<Void> runAll(@NotNull Collection<LayoutContext> contexts) {
+        LayoutContext[] sorted = contexts.toArray(new LayoutContext[0]);
+        // largest first, so that the greedy grouping below produces balanced tasks
+        Arrays.sort(sorted, (a, b) -> Integer.compare(b.count, a.count));
+
+        long total = 0;
+        for (LayoutContext ctx : sorted) {
+            total += ctx.count;
+        }
+        // a few tasks per worker leaves room for work stealing to even out the load
+        long target = Math.max(1, total / (parallelism * 4L));
+
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        int start = 0;
+        while (start < sorted.length) {
+            int end = start;
+            long items = 0;
+            while (end < sorted.length && (end == start || items + sorted[end].count <= target)) {
+                items += sorted[end].count;
+                end++;
+            }
+            final int from = start;
+            final int to = end;
+            tasks.add(CompletableFuture.runAsync(() -> {
+                for (int i = from; i < to; i++) {
+                    Layout.layRunContext(sorted[i]);
+                }
+            }, executor));
+            start = end;
+        }
+        return CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0]));
+    }
+}
@@ -0,0 +1,172 @@
+package io.github.layout;
+
+import org.intellij.lang.annotations.MagicConstant;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded buffer of layout mutations which can be filled from any number of threads without locking.
+ * Each mutation is encoded into a fixed size record of primitives, so producers don't allocate.
+ * Buffer is drained by a single consumer, usually a {@link LayoutScheduler} on the thread which
+ * owns the {@link LayoutContext}.
+ * <p>
+ * When the buffer is full, mutation methods return false and the mutation is not recorded. The caller
+ * may retry later or drop the update.
+ */
+@SuppressWarnings("unused")
+public final class LayoutCommandBuffer {
+
+    static final int CMD_SET_SIZE = 0;
+    static final int CMD_SET_BEHAVE = 1;
+    static final int CMD_SET_CONTAIN = 2;
+    static final int CMD_SET_MARGINS = 3;
+    static final int CMD_SET_GROW = 4;
+    static final int CMD_SET_SCROLL = 5;
+    static final int CMD_SET_PADDING = 6;
+    static final int CMD_SET_GAP = 7;
+    static final int CMD_COUNT = 8;
+
+    private final int mask;
+    // per slot sequence, used to publish slots between producers and consumer
+    private final AtomicLongArray sequences;
+    // 3 longs per slot: command and item, then two arguments
+    private final long[] payload;
+    private final AtomicLong tail = new AtomicLong();
+    private long head;
+
+    /**
+     * @param capacity maximum number of pending commands, rounded up to a power of two
+     */
+    public LayoutCommandBuffer(int capacity) {
+        assert capacity > 0 && capacity <= (1 << 28);
+        int size = Integer.highestOneBit(capacity);
+        if(size < capacity) size <<= 1;
+        this.mask = size - 1;
+        this.sequences = new AtomicLongArray(size);
+        this.payload = new long[size * 3];
+        for(int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @see Layout#laySetSize
+     */
+    public boolean setSize(int item, float width, float height) {
+        return offer(CMD_SET_SIZE, item, pack(width, height), 0L);
+    }
+
+    /**
+     * @see Layout#laySetBehave
+     */
+    public boolean setBehave(int item, @MagicConstant(flagsFromClass = LayoutFlags.class) int flags) {
+        return offer(CMD_SET_BEHAVE, item, flags, 0L);
+    }
+
+    /**
+     * @see Layout#laySetContain
+     */
+    public boolean setContain(int item, @MagicConstant(flagsFromClass = LayoutBoxFlags.class) int flags) {
+        return offer(CMD_SET_CONTAIN, item, flags, 0L);
+    }
+
+    /**
+     * @see Layout#laySetMargins
+     */
+    public boolean setMargins(int item, float left, float top, float right, float bottom) {
+        return offer(CMD_SET_MARGINS, item, pack(left, top), pack(right, bottom));
+    }
+
+    /**
+     * @see Layout#laySetGrow
+     */
+    public boolean setGrow(int item, float grow) {
+        return offer(CMD_SET_GROW, item, pack(grow, 0F), 0L);
+    }
+
+    /**
+     * @see Layout#laySetScroll
+     */
+    public boolean setScroll(int item, float x, float y) {
+        return offer(CMD_SET_SCROLL, item, pack(x, y), 0L);
+    }
+
+    /**
+     * @see Layout#laySetPadding
+     */
+    public boolean setPadding(int item, float left, float top, float right, float bottom) {
+        return offer(CMD_SET_PADDING, item, pack(left, top), pack(right, bottom));
+    }
+
+    /**
+     * @see Layout#laySetGap
+     */
+    public boolean setGap(int item, float gap, float crossGap) {
+        return offer(CMD_SET_GAP, item, pack(gap, crossGap), 0L);
+    }
+
+    private boolean offer(int cmd, int item, long a, long b) {
+        long pos;
+        int idx;
+        for(;;) {
+            pos = tail.get();
+            idx = (int) (pos & mask);
+            long dif = sequences.get(idx) - pos;
+            if(dif == 0) {
+                if(tail.compareAndSet(pos, pos + 1)) break;
+            } else if(dif < 0) {
+                return false; // full
+            }
+        }
+        int off = idx * 3;
+        payload[off] = ((long) cmd << 32) | (item & 0xFFFFFFFFL);
+        payload[off + 1] = a;
+        payload[off + 2] = b;
+        sequences.lazySet(idx, pos + 1);
+        return true;
+    }
+
+    /**
+     * Moves up to `max` published commands into given arrays, in the order they were added.
+     * `cmds` and `items` receive one element per command, `args` receives 2 encoded arguments
+     * per command, which are either a pair of floats packed with {@link #pack} or an int.
+     * Must be called only from a single consumer thread. Returns the number of commands drained.
+     */
+    int drain(int[] cmds, int[] items, long[] args, int max) {
+        int n = 0;
+        while (n < max) {
+            int idx = (int) (head & mask);
+            if(sequences.get(idx) != head + 1) break;
+            int off = idx * 3;
+            long header = payload[off];
+            cmds[n] = (int) (header >>> 32);
+            items[n] = (int) header;
+            args[n * 2] = payload[off + 1];
+            args[n * 2 + 1] = payload[off + 2];
+            sequences.lazySet(idx, head + mask + 1);
+            head++;
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Returns maximum number of pending commands
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    static long pack(float a, float b) {
+        return ((long) Float.floatToRawIntBits(a) << 32) | (Float.floatToRawIntBits(b) & 0xFFFFFFFFL);
+    }
+
+    static float unpackFirst(long v) {
+        return Float.intBitsToFloat((int) (v >>> 32));
+    }
+
+    static float unpackSecond(long v) {
+        return Float.intBitsToFloat((int) v);
+    }
+}
@@ -2,6 +2,9 @@ package io.github.layout;
 
 import org.intellij.lang.annotations.MagicConstant;
 
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
 @SuppressWarnings("unused")
 public final class LayoutContext {
 
@@ -9,9 +12,60 @@ public final class LayoutContext {
     LayoutRect[] rects = new LayoutRect[0];
     int capacity;
     int count;
+    // incremented whenever items are created or linked, so that plans can detect changes of the tree
+    int structure;
+    // structure at the moment of the last lay_run_context
+    int runStructure = -1;
+    // pre-order of items stored by lay_run_context, valid while structure is traversalStructure
+    int[] traversal;
+    int traversalLength;
+    int traversalStructure;
+
+    float snapScale = 1F;
+    int[] snapRects;
+
+    LayoutRecorder recorder;
+
+    LayoutRect[] bounds;
+    // children of long rows and columns with their bounds, indexed by container, built by lay_query_scrolled
+    StackIndex[] stackIndices;
+
+    // sizes calculated by lay_calc_size, position and size per dimension, null if disabled
+    float[] sizeCache;
+    byte[] sizeCacheState;
+
+    // incremented before and after every layout run, odd while running
+    volatile long sequence = 2;
+
+    static final int PAGE_SHIFT = 8;
+    static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    // pages of items shared with a forked context, null if there are none
+    boolean[] sharedPages;
+    int sharedPagesCount;
+    boolean rectsShared;
+
+    // user data per item, allocated on first use and shared with forks until written
+    int[] userInts;
+    long[] userLongs;
+    boolean userIntsShared;
+    boolean userLongsShared;
+
+    // used instead of rects by measure pass
+    LayoutRect[] scratchRects;
+    // positions and sizes of long runs of children gathered by compiled programs
+    float[] runScratch;
+    // whether lay_calc_size has met a wrapped row since it was reset
+    boolean wrapSeen;
 
     public LayoutContext() {}
 
+    /**
+     * @see Layout#layFork
+     */
+    public LayoutContext fork() {
+        return Layout.layFork(this);
+    }
+
     /**
      * @see Layout#layReserveItemsCapacity
      */
@@ -26,6 +80,20 @@ public final class LayoutContext {
         Layout.layResetContext(this);
     }
 
+    /**
+     * @see Layout#layMark
+     */
+    public int mark() {
+        return Layout.layMark(this);
+    }
+
+    /**
+     * @see Layout#layRewind
+     */
+    public void rewind(int mark) {
+        Layout.layRewind(this, mark);
+    }
+
     /**
      * @see Layout#layRunContext
      */
@@ -40,6 +108,13 @@ public final class LayoutContext {
         Layout.layRunItem(this, item);
     }
 
+    /**
+     * @see Layout#layMeasure
+     */
+    public float[] measure(int item, float availWidth, float availHeight, float[] dst) {
+        return Layout.layMeasure(this, item, availWidth, availHeight, dst);
+    }
+
     /**
      * @see Layout#layClearItemBreak
      */
@@ -166,6 +241,34 @@ public final class LayoutContext {
         return Layout.layGetMarginsLTRB(this, item, dst);
     }
 
+    /**
+     * @see Layout#laySetPadding
+     */
+    public void setPadding(int item, float left, float top, float right, float bottom) {
+        Layout.laySetPadding(this, item, left, top, right, bottom);
+    }
+
+    /**
+     * @see Layout#layGetPaddingLTRB
+     */
+    public float[] getPaddingLTRB(int item, float[] dst) {
+        return Layout.layGetPaddingLTRB(this, item, dst);
+    }
+
+    /**
+     * @see Layout#laySetGap
+     */
+    public void setGap(int item, float gap, float crossGap) {
+        Layout.laySetGap(this, item, gap, crossGap);
+    }
+
+    /**
+     * @see Layout#layGetGap
+     */
+    public float[] getGap(int item, float[] dst) {
+        return Layout.layGetGap(this, item, dst);
+    }
+
     /**
      * @see Layout#layFirstChild
      */
@@ -180,6 +283,27 @@ public final class LayoutContext {
         return Layout.layNextSibling(this, id);
     }
 
+    /**
+     * @see Layout#layParent
+     */
+    public int parent(int id) {
+        return Layout.layParent(this, id);
+    }
+
+    /**
+     * @see Layout#layPrevSibling
+     */
+    public int prevSibling(int id) {
+        return Layout.layPrevSibling(this, id);
+    }
+
+    /**
+     * @see Layout#layDepth
+     */
+    public int depth(int id) {
+        return Layout.layDepth(this, id);
+    }
+
     /**
      * @see Layout#layGetFlags
      */
@@ -222,6 +346,223 @@ public final class LayoutContext {
         return Layout.layGetRect(this, id, dst);
     }
 
+    /**
+     * @see Layout#laySetScroll
+     */
+    public void setScroll(int item, float x, float y) {
+        Layout.laySetScroll(this, item, x, y);
+    }
+
+    /**
+     * @see Layout#layGetScrollX
+     */
+    public float getScrollX(int item) {
+        return Layout.layGetScrollX(this, item);
+    }
+
+    /**
+     * @see Layout#layGetScrollY
+     */
+    public float getScrollY(int item) {
+        return Layout.layGetScrollY(this, item);
+    }
+
+    /**
+     * @see Layout#laySetSubtreeBounds
+     */
+    public void setSubtreeBounds(boolean enabled) {
+        Layout.laySetSubtreeBounds(this, enabled);
+    }
+
+    /**
+     * @see Layout#laySetSizeCache
+     */
+    public void setSizeCache(boolean enabled) {
+        Layout.laySetSizeCache(this, enabled);
+    }
+
+    /**
+     * @see Layout#layGetSubtreeBounds
+     */
+    public float[] getSubtreeBounds(int id, float[] dst) {
+        return Layout.layGetSubtreeBounds(this, id, dst);
+    }
+
+    /**
+     * @see Layout#layQueryScrolled
+     */
+    public int queryScrolled(float[] viewport, int[] ids, float[] rects) {
+        return Layout.layQueryScrolled(this, viewport, ids, rects);
+    }
+
+    /**
+     * @see Layout#layEmitDrawList
+     */
+    public int emitDrawList(int item, ByteBuffer dst, int format) {
+        return Layout.layEmitDrawList(this, item, dst, format);
+    }
+
+    /**
+     * @see Layout#layQueryVisible
+     */
+    public int queryVisible(float[] viewport, int[] dst) {
+        return Layout.layQueryVisible(this, viewport, dst);
+    }
+
+    /**
+     * @see Layout#laySetRecorder
+     */
+    public void setRecorder(LayoutRecorder recorder) {
+        Layout.laySetRecorder(this, recorder);
+    }
+
+    /**
+     * @see Layout#laySetPixelSnapping
+     */
+    public void setPixelSnapping(float scale, int[] dst) {
+        Layout.laySetPixelSnapping(this, scale, dst);
+    }
+
+    /**
+     * @see Layout#layGetSnappedRect
+     */
+    public int[] getSnappedRect(int id, int[] dst) {
+        return Layout.layGetSnappedRect(this, id, dst);
+    }
+
+    /**
+     * @see Layout#laySetUserInt
+     */
+    public void setUserInt(int item, int value) {
+        Layout.laySetUserInt(this, item, value);
+    }
+
+    /**
+     * @see Layout#layGetUserInt
+     */
+    public int getUserInt(int item) {
+        return Layout.layGetUserInt(this, item);
+    }
+
+    /**
+     * @see Layout#laySetUserLong
+     */
+    public void setUserLong(int item, long value) {
+        Layout.laySetUserLong(this, item, value);
+    }
+
+    /**
+     * @see Layout#layGetUserLong
+     */
+    public long getUserLong(int item) {
+        return Layout.layGetUserLong(this, item);
+    }
+
+    /**
+     * @see Layout#laySetUserInts
+     */
+    public void setUserInts(int first, int[] src, int srcOffset, int length) {
+        Layout.laySetUserInts(this, first, src, srcOffset, length);
+    }
+
+    /**
+     * @see Layout#laySetUserLongs
+     */
+    public void setUserLongs(int first, long[] src, int srcOffset, int length) {
+        Layout.laySetUserLongs(this, first, src, srcOffset, length);
+    }
+
+    /**
+     * @see Layout#layGatherUserInts
+     */
+    public int[] gatherUserInts(int[] ids, int count, int[] dst) {
+        return Layout.layGatherUserInts(this, ids, count, dst);
+    }
+
+    /**
+     * @see Layout#layGatherUserLongs
+     */
+    public long[] gatherUserLongs(int[] ids, int count, long[] dst) {
+        return Layout.layGatherUserLongs(this, ids, count, dst);
+    }
+
+    /**
+     * @see Layout#layReadStamp
+     */
+    public long readStamp() {
+        return Layout.layReadStamp(this);
+    }
+
+    /**
+     * @see Layout#layValidateRead
+     */
+    public boolean validateRead(long stamp) {
+        return Layout.layValidateRead(this, stamp);
+    }
+
+    /**
+     * @see Layout#layTryGetRect
+     */
+    public boolean tryGetRect(int id, float[] dst) {
+        return Layout.layTryGetRect(this, id, dst);
+    }
+
+    /**
+     * @see Layout#layCompile
+     */
+    public LayoutProgram compile() {
+        return Layout.layCompile(this);
+    }
+
+    /**
+     * @see Layout#layRunCompiled
+     */
+    public void runCompiled(LayoutProgram program, float width, float height) {
+        Layout.layRunCompiled(this, program, width, height);
+    }
+
+    /**
+     * @see Layout#layAnalyze
+     */
+    public LayoutReport analyze(boolean profile) {
+        return Layout.layAnalyze(this, profile);
+    }
+
+    /**
+     * @see Layout#layRunCached
+     */
+    public boolean runCached(LayoutResultCache cache) {
+        return Layout.layRunCached(this, cache);
+    }
+
+    /**
+     * @see Layout#layBuildLevelPlan
+     */
+    public LayoutLevelPlan buildLevelPlan() {
+        return Layout.layBuildLevelPlan(this);
+    }
+
+    /**
+     * @see Layout#layRunLevelPlan(LayoutContext, LayoutLevelPlan)
+     */
+    public void runLevelPlan(LayoutLevelPlan plan) {
+        Layout.layRunLevelPlan(this, plan);
+    }
+
+    /**
+     * @see Layout#layRunLevelPlan(LayoutContext, LayoutLevelPlan, Executor, int)
+     */
+    public void runLevelPlan(LayoutLevelPlan plan, Executor executor, int parallelism) {
+        Layout.layRunLevelPlan(this, plan, executor, parallelism);
+    }
+
+    /**
+     * @see Layout#layRunBreakpoints
+     */
+    public void runBreakpoints(float[] widths, float[] heights, float[][] dst) {
+        Layout.layRunBreakpoints(this, widths, heights, dst);
+    }
+
     /**
      * @see Layout#layCalcSize
      */
@@ -239,6 +580,15 @@ public final class LayoutContext {
     public static class LayoutRect {
         public float x,y,w,h;
 
+        LayoutRect copy() {
+            LayoutRect copy = new LayoutRect();
+            copy.x = x;
+            copy.y = y;
+            copy.w = w;
+            copy.h = h;
+            return copy;
+        }
+
         public float get(int i) {
             switch (i) {
                 case 0: return x;
@@ -258,6 +608,44 @@ public final class LayoutContext {
                 default: throw new IllegalArgumentException("Invalid index while setting layout rect component, should be [0;3], given: " + i);
             }
         }
+
+        // position and size by dimension (0 or 1), cheaper than get and set in the layout procedures
+
+        float pos(int dim) {
+            return dim == 0 ? x : y;
+        }
+
+        float extent(int dim) {
+            return dim == 0 ? w : h;
+        }
+
+        void setPos(int dim, float value) {
+            if(dim == 0) x = value;
+            else y = value;
+        }
+
+        void setExtent(int dim, float value) {
+            if(dim == 0) w = value;
+            else h = value;
+        }
+    }
+
+    /**
+     * Children of a row or column in order, with the largest end of bounds, along the stacking
+     * dimension, among every child and its preceding siblings, and the smallest start of bounds
+     * among every child and its following siblings. The largest ends never decrease, so the first
+     * child which can reach into a viewport is found with a binary search, and the smallest starts
+     * never decrease either, so iteration stops once none of the rest can reach back into it.
+     */
+    static final class StackIndex {
+        // sequence and structure of the context when built
+        long sequence;
+        int structure;
+        // -1 if the container has too few children to be indexed
+        int length;
+        int[] children = new int[0];
+        float[] reach = new float[0];
+        float[] floor = new float[0];
     }
 
 }
@@ -58,11 +58,9 @@ public final class LayoutFlags {
      */
     public static final int LAY_FILL = 0x1e0;
     /**
-     * When in a wrapping container, put this element on a new line. Wrapping
-     * layout code auto-inserts LAY_BREAK flags as needed. See GitHub issues for
-     * TODO related to this.
-     * Drawing routines can read this via item pointers as needed after
-     * performing layout calculations.
+     * When in a wrapping container, put this element on a new line. Line breaks
+     * calculated by wrapping layout code are stored separately and are not
+     * reflected in item flags.
      */
     public static final int LAY_BREAK = 0x200;
 }
@@ -0,0 +1,179 @@
+package io.github.layout;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import static io.github.layout.Layout.*;
+
+/**
+ * Items of a context sorted into breadth-first levels, built by {@link Layout#layBuildLevelPlan}.
+ * <p>
+ * Plan is run by {@link Layout#layRunLevelPlan} level by level instead of recursively: sizes are
+ * calculated bottom-up starting with the deepest level, and items are arranged top-down starting
+ * with the root. Items of one level don't depend on each other, so wide levels can be split
+ * between multiple threads. Ids of every level are stored contiguously, so sweeps don't have to
+ * follow sibling links.
+ * <p>
+ * Plan only stores the shape of the tree, so properties of the items such as sizes and flags can
+ * be changed between runs, but creating or linking items makes the plan outdated.
+ */
+@SuppressWarnings("unused")
+public final class LayoutLevelPlan {
+
+    /**
+     * Levels smaller than this are always run on a single thread
+     */
+    static final int MIN_PARALLEL_ITEMS = 4096;
+
+    final LayoutContext ctx;
+    final int structure;
+    // item ids in breadth-first order
+    final int[] order;
+    // items of level i are order[levels[i]] until order[levels[i + 1]]
+    final int[] levels;
+
+    private LayoutLevelPlan(LayoutContext ctx, int[] order, int[] levels) {
+        this.ctx = ctx;
+        this.structure = ctx.structure;
+        this.order = order;
+        this.levels = levels;
+    }
+
+    /**
+     * Returns number of levels in the tree, which is its depth plus one
+     */
+    public int levelCount() {
+        return levels.length - 1;
+    }
+
+    /**
+     * Returns number of items on given level
+     */
+    public int levelSize(int level) {
+        return levels[level + 1] - levels[level];
+    }
+
+    /**
+     * Returns whether the tree of the context has changed since the plan was built
+     */
+    public boolean isOutdated() {
+        return ctx.structure != structure;
+    }
+
+    static @NotNull LayoutLevelPlan build(@NotNull LayoutContext ctx) {
+        final int[] order = new int[ctx.count];
+        int[] levels = new int[8];
+        int levelCount = 0;
+        int length = 0;
+        if(ctx.count > 0) {
+            order[length++] = 0;
+        }
+        int start = 0;
+        while (start < length) {
+            if(levelCount + 1 >= levels.length) {
+                levels = Arrays.copyOf(levels, levels.length * 2);
+            }
+            levels[levelCount++] = start;
+            final int end = length;
+            for(int i = start; i < end; i++) {
+                int child = layGetItem(ctx, order[i]).firstChild;
+                while (child != LAY_INVALID_ID) {
+                    order[length++] = child;
+                    child = layGetItem(ctx, child).nextSibling;
+                }
+            }
+            start = end;
+        }
+        levels[levelCount] = length;
+        return new LayoutLevelPlan(ctx, order, Arrays.copyOf(levels, levelCount + 1));
+    }
+
+    void run(Executor executor, int parallelism) {
+        final LayoutContext ctx = this.ctx;
+        if(ctx.sharedPages != null) {
+            // wrapped containers update their lines, pages shared with forks are copied up front,
+            // since workers can't copy them concurrently
+            for(int i = 0; i < levels[levels.length - 1]; i++) {
+                final int flags = layGetItem(ctx, order[i]).flags;
+                if((flags & LayoutBoxFlags.LAY_WRAP) != 0 && (flags & LayoutBoxFlags.LAY_FLEX) != 0) {
+                    layGetItemMut(ctx, order[i]);
+                }
+            }
+        }
+        final int depth = levelCount();
+        for(int dim = 0; dim < 2; dim++) {
+            final int d = dim;
+            for(int level = depth - 1; level >= 0; level--) {
+                sweep(level, executor, parallelism, (from, to) -> {
+                    for(int i = from; i < to; i++) {
+                        layCalcItemSize(ctx, order[i], d);
+                    }
+                });
+            }
+            for(int level = 0; level < depth; level++) {
+                sweep(level, executor, parallelism, (from, to) -> {
+                    for(int i = from; i < to; i++) {
+                        layArrangeItem(ctx, order[i], d);
+                    }
+                });
+            }
+        }
+        if(ctx.bounds != null) {
+            for(int level = depth - 1; level >= 0; level--) {
+                sweep(level, executor, parallelism, (from, to) -> {
+                    for(int i = from; i < to; i++) {
+                        layUpdateBounds(ctx, order[i]);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Runs given range operation over items of a level, split between `parallelism` threads
+     * if the level is wide enough. The calling thread takes the first part.
+     */
+    private void sweep(int level, Executor executor, int parallelism, RangeOp op) {
+        final int from = levels[level];
+        final int to = levels[level + 1];
+        final int size = to - from;
+        if(executor == null || parallelism < 2 || size < MIN_PARALLEL_ITEMS) {
+            op.run(from, to);
+            return;
+        }
+        final int parts = Math.min(parallelism, size / (MIN_PARALLEL_ITEMS / 2));
+        final int step = (size + parts - 1) / parts;
+        CompletableFuture<?>[] tasks = new CompletableFuture<?>[parts - 1];
+        for(int i = 1; i < parts; i++) {
+            final int start = Math.min(to, from + i * step);
+            final int end = Math.min(to, start + step);
+            tasks[i - 1] = CompletableFuture.runAsync(() -> op.run(start, end), executor);
+        }
+        try {
+            op.run(from, from + step);
+        } catch (RuntimeException | Error e) {
+            // tasks keep writing rects of the context, they must be done before the caller sees the failure
+            try {
+                CompletableFuture.allOf(tasks).join();
+            } catch (CompletionException secondary) {
+                e.addSuppressed(secondary.getCause() != null ? secondary.getCause() : secondary);
+            }
+            throw e;
+        }
+        try {
+            CompletableFuture.allOf(tasks).join();
+        } catch (CompletionException e) {
+            if(e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if(e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw e;
+        }
+    }
+
+    private interface RangeOp {
+        void run(int from, int to);
+    }
+}
@@ -0,0 +1,530 @@
+package io.github.layout;
+
+import org.jetbrains.annotations.NotNull;
+
+import static io.github.layout.Layout.*;
+import static io.github.layout.LayoutBoxFlags.*;
+import static io.github.layout.LayoutFlags.*;
+
+/**
+ * Layout of a structurally fixed tree compiled by {@link Layout#layCompile} into a flat program,
+ * which can be re-run with different root sizes by {@link Layout#layRunCompiled}.
+ * <p>
+ * Compilation resolves everything that only depends on item flags ahead of time: box model of every
+ * container is turned into a kernel per pass and dimension, children are stored as contiguous ranges
+ * instead of sibling links, and item margins, paddings, gaps, sizes, alignment and grow factors are
+ * copied into primitive arrays. Running the program is then a sequence of tight loops over those arrays.
+ * <p>
+ * The program is a snapshot of the tree at the moment of compilation. Changing items of the context
+ * afterwards doesn't affect the program, which must be compiled again instead. Wrapped containers
+ * break their lines depending on the available space, so they aren't compiled: each of them is run
+ * as a whole subtree by the regular lay_calc_size and lay_arrange.
+ * <p>
+ * Long runs of children of rows and columns are arranged by wide kernels: positions and sizes of the
+ * children are gathered into primitive arrays of the context, and everything which doesn't depend on
+ * the neighbouring children is computed by branch-free loops over those arrays, which the JIT can
+ * unroll and vectorize. Results are exactly the same as of the per-child kernels.
+ */
+@SuppressWarnings("unused")
+public final class LayoutProgram {
+
+    static final byte OP_OVERLAY = 0;
+    static final byte OP_STACKED = 1;
+    static final byte OP_SQUEEZED = 2;
+    // wrapped container, the whole subtree is run by the regular layout procedures
+    static final byte OP_SUBTREE = 3;
+
+    // runs of children at least this long are arranged by the wide kernels
+    static final int WIDE_RUN = 32;
+
+    // number of items compiled into the program
+    final int length;
+    // number of items in the context at the moment of compilation
+    final int itemsCount;
+    // everything below is indexed by position of an item in the program, which is pre-order
+    final int[] ids;
+    // children of an item are stored at kids[kidsStart[p]] until kids[kidsStart[p + 1]]
+    final int[] kidsStart;
+    final int[] kids;
+    // kernels per position and dimension
+    final byte[] calcOps;
+    final byte[] arrangeOps;
+    // alignment (LAY_HFILL bits) per position and dimension
+    final int[] align;
+    // whether size is explicitly set, per position and dimension
+    final boolean[] fixed;
+    // whether the item grows beyond its explicit size, per position and dimension
+    final boolean[] grows;
+    final float[] margins;
+    final float[] paddings;
+    final float[] gaps;
+    final float[] sizes;
+    final float[] growFactors;
+    final int[] justify;
+    // alignment, fixed flag, end margin and grow factor of the child in every slot of kids,
+    // so that the children of an item can be read as a contiguous run
+    final int[] kidAlign;
+    final boolean[] kidFixed;
+    final float[] kidMargins;
+    final float[] kidGrowFactors;
+    // largest number of children of a single item
+    int widestRun;
+
+    private LayoutProgram(int length, int itemsCount) {
+        this.length = length;
+        this.itemsCount = itemsCount;
+        this.ids = new int[length];
+        this.kidsStart = new int[length + 1];
+        this.kids = new int[length];
+        this.calcOps = new byte[length * 2];
+        this.arrangeOps = new byte[length * 2];
+        this.align = new int[length * 2];
+        this.fixed = new boolean[length * 2];
+        this.grows = new boolean[length * 2];
+        this.margins = new float[length * 4];
+        this.paddings = new float[length * 4];
+        this.gaps = new float[length];
+        this.sizes = new float[length * 2];
+        this.growFactors = new float[length];
+        this.justify = new int[length];
+        this.kidAlign = new int[length * 2];
+        this.kidFixed = new boolean[length * 2];
+        this.kidMargins = new float[length * 2];
+        this.kidGrowFactors = new float[length];
+    }
+
+    /**
+     * Returns number of items compiled into the program, not counting the descendants of wrapped containers
+     */
+    public int length() {
+        return length;
+    }
+
+    static @NotNull LayoutProgram compile(@NotNull LayoutContext ctx) {
+        assert ctx.count > 0;
+        // first pass: pre-order of the items, without descending into wrapped containers
+        int[] order = new int[ctx.count];
+        int[] positions = new int[ctx.count];
+        int length = 0;
+        int item = 0;
+        for(;;) {
+            LayoutItem pitem = layGetItem(ctx, item);
+            positions[item] = length;
+            order[length++] = item;
+            if(!_isWrapped(pitem.flags) && pitem.firstChild != LAY_INVALID_ID) {
+                item = pitem.firstChild;
+                continue;
+            }
+            while (item != 0 && layGetItem(ctx, item).nextSibling == LAY_INVALID_ID) {
+                item = layGetItem(ctx, item).parent;
+            }
+            if(item == 0) break;
+            item = layGetItem(ctx, item).nextSibling;
+        }
+
+        LayoutProgram program = new LayoutProgram(length, ctx.count);
+        int kidsCount = 0;
+        for(int p = 0; p < length; p++) {
+            final int id = order[p];
+            LayoutItem pitem = layGetItem(ctx, id);
+            final int flags = pitem.flags;
+            program.ids[p] = id;
+            program.kidsStart[p] = kidsCount;
+            if(!_isWrapped(flags)) {
+                int child = pitem.firstChild;
+                while (child != LAY_INVALID_ID) {
+                    program.kids[kidsCount++] = positions[child];
+                    child = layGetItem(ctx, child).nextSibling;
+                }
+            }
+            for(int dim = 0; dim < 2; dim++) {
+                program.calcOps[p * 2 + dim] = _calcOp(flags, dim);
+                program.arrangeOps[p * 2 + dim] = _arrangeOp(flags, dim);
+                program.align[p * 2 + dim] = ((flags & LAY_ITEM_LAYOUT_MASK) >> dim) & LAY_HFILL;
+                program.fixed[p * 2 + dim] = (((flags & LAY_ITEM_FIXED_MASK) >> dim) & LAY_ITEM_HFIXED) == LAY_ITEM_HFIXED;
+                program.grows[p * 2 + dim] = dim == 0 ? (flags & LAY_HGROW) == LAY_HGROW : (flags & LAY_VGROW) == LAY_VGROW;
+                program.sizes[p * 2 + dim] = pitem.size(dim);
+            }
+            for(int i = 0; i < 4; i++) {
+                program.margins[p * 4 + i] = pitem.margins(i);
+                program.paddings[p * 4 + i] = pitem.padding(i);
+            }
+            // only rows and columns have gaps
+            program.gaps[p] = (flags & LAY_FLEX) != 0 ? pitem.gap() : 0F;
+            program.growFactors[p] = (flags & LAY_ITEM_GROW_SET) == LAY_ITEM_GROW_SET ? pitem.grow : 1F;
+            program.justify[p] = flags & LAY_JUSTIFY;
+        }
+        program.kidsStart[length] = kidsCount;
+        for(int p = 0; p < length; p++) {
+            program.widestRun = Math.max(program.widestRun, program.kidsStart[p + 1] - program.kidsStart[p]);
+        }
+        for(int k = 0; k < kidsCount; k++) {
+            final int c = program.kids[k];
+            for(int dim = 0; dim < 2; dim++) {
+                program.kidAlign[k * 2 + dim] = program.align[c * 2 + dim];
+                program.kidFixed[k * 2 + dim] = program.fixed[c * 2 + dim];
+                program.kidMargins[k * 2 + dim] = program.margins[c * 4 + 2 + dim];
+            }
+            program.kidGrowFactors[k] = program.growFactors[c];
+        }
+        return program;
+    }
+
+    private static boolean _isWrapped(int flags) {
+        final int model = flags & LAY_ITEM_BOX_MODEL_MASK;
+        return model == (LAY_ROW | LAY_WRAP)
+                || model == (LAY_COLUMN | LAY_WRAP);
+    }
+
+    /**
+     * Same choice of procedures as the box model switch of lay_calc_size
+     */
+    private static byte _calcOp(int flags, int dim) {
+        switch (flags & LAY_ITEM_BOX_MODEL_MASK) {
+            case LAY_ROW | LAY_WRAP:
+            case LAY_COLUMN | LAY_WRAP:
+                return OP_SUBTREE;
+            case LAY_LAYOUT | LAY_WRAP:
+                return dim > 0 ? OP_STACKED : OP_OVERLAY;
+            case LAY_COLUMN:
+            case LAY_ROW:
+                return (flags & 1) == dim ? OP_STACKED : OP_OVERLAY;
+            default:
+                return OP_OVERLAY;
+        }
+    }
+
+    /**
+     * Same choice of procedures as the box model switch of lay_arrange
+     */
+    private static byte _arrangeOp(int flags, int dim) {
+        switch (flags & LAY_ITEM_BOX_MODEL_MASK) {
+            case LAY_ROW | LAY_WRAP:
+            case LAY_COLUMN | LAY_WRAP:
+                return OP_SUBTREE;
+            case LAY_COLUMN:
+            case LAY_ROW:
+                return (flags & 1) == dim ? OP_STACKED : OP_SQUEEZED;
+            default:
+                return OP_OVERLAY;
+        }
+    }
+
+    void run(@NotNull LayoutContext ctx, float width, float height) {
+        assert ctx.count == itemsCount : "Layout program was compiled for a different tree";
+        if(widestRun >= WIDE_RUN && (ctx.runScratch == null || ctx.runScratch.length < widestRun * 3)) {
+            ctx.runScratch = new float[widestRun * 3];
+        }
+        calcSize(ctx, 0, width);
+        arrange(ctx, 0);
+        calcSize(ctx, 1, height);
+        arrange(ctx, 1);
+        if(ctx.bounds != null) {
+            // reversed pre-order visits children before their parents
+            for(int p = length - 1; p >= 0; p--) {
+                if(arrangeOps[p * 2 + 1] != OP_SUBTREE) {
+                    layUpdateBounds(ctx, ids[p]);
+                }
+            }
+        }
+    }
+
+    private void calcSize(@NotNull LayoutContext ctx, int dim, float rootSize) {
+        final LayoutContext.LayoutRect[] rects = ctx.rects;
+        // reversed pre-order visits children before their parents
+        for(int p = length - 1; p >= 0; p--) {
+            final int op = calcOps[p * 2 + dim];
+            if(op == OP_SUBTREE) {
+                layCalcSize(ctx, ids[p], dim);
+                continue;
+            }
+            LayoutContext.LayoutRect rect = rects[ids[p]];
+            rect.setPos(dim, margins[p * 4 + dim]);
+
+            final float size = p == 0 ? rootSize : sizes[p * 2 + dim];
+            final boolean grow = grows[p * 2 + dim];
+            if(size != 0 && !grow) {
+                rect.setExtent(dim, size);
+                continue;
+            }
+
+            float calSize = 0;
+            final int end = kidsStart[p + 1];
+            if(op == OP_STACKED) {
+                final float gap = gaps[p];
+                for(int k = kidsStart[p]; k < end; k++) {
+                    final int c = kids[k];
+                    LayoutContext.LayoutRect childRect = rects[ids[c]];
+                    if(gap != 0 && k != kidsStart[p]) {
+                        calSize += gap;
+                    }
+                    calSize += childRect.pos(dim) + childRect.extent(dim) + margins[c * 4 + 2 + dim];
+                }
+            } else {
+                for(int k = kidsStart[p]; k < end; k++) {
+                    final int c = kids[k];
+                    LayoutContext.LayoutRect childRect = rects[ids[c]];
+                    float childSize = childRect.pos(dim) + childRect.extent(dim) + margins[c * 4 + 2 + dim];
+                    calSize = Math.max(calSize, childSize);
+                }
+            }
+
+            calSize += paddings[p * 4 + dim] + paddings[p * 4 + 2 + dim];
+
+            // item shouldn't shrink when limited by size
+            if(size != 0) {
+                calSize = Math.max(size, calSize);
+            }
+            rect.setExtent(dim, calSize);
+        }
+    }
+
+    private void arrange(@NotNull LayoutContext ctx, int dim) {
+        final LayoutContext.LayoutRect[] rects = ctx.rects;
+        for(int p = 0; p < length; p++) {
+            final int id = ids[p];
+            switch (arrangeOps[p * 2 + dim]) {
+                case OP_SUBTREE:
+                    // snaps the whole subtree by itself
+                    layArrange(ctx, id, dim);
+                    continue;
+                case OP_STACKED:
+                    arrangeStacked(ctx, rects, p, dim);
+                    break;
+                case OP_SQUEEZED:
+                    if(kidsStart[p + 1] - kidsStart[p] >= WIDE_RUN) {
+                        arrangeSqueezedWide(ctx.runScratch, rects, p, dim);
+                    } else {
+                        arrangeSqueezed(rects, p, dim);
+                    }
+                    break;
+                default:
+                    arrangeOverlay(rects, p, dim);
+                    break;
+            }
+            if(ctx.snapRects != null) {
+                laySnapRect(ctx, id, dim);
+            }
+        }
+    }
+
+    /**
+     * lay_arrange_stacked without wrapping
+     */
+    private void arrangeStacked(LayoutContext ctx, LayoutContext.LayoutRect[] rects, int p, int dim) {
+        LayoutContext.LayoutRect rect = rects[ids[p]];
+        final float space = rect.extent(dim) - paddings[p * 4 + dim] - paddings[p * 4 + 2 + dim];
+        final float gap = gaps[p];
+        final int start = kidsStart[p];
+        final int end = kidsStart[p + 1];
+
+        // first pass: count items that need to be expanded,
+        // and the space that is used
+        float used = 0F;
+        float sumOfFillers = 0;
+        int squeezedCount = 0;
+        for(int k = start; k < end; k++) {
+            final int c = kids[k];
+            LayoutContext.LayoutRect childRect = rects[ids[c]];
+            if(k > start) {
+                used += gap;
+            }
+            if(align[c * 2 + dim] == LAY_HFILL) {
+                sumOfFillers += growFactors[c];
+                used += childRect.pos(dim) + margins[c * 4 + 2 + dim];
+            } else {
+                if(!fixed[c * 2 + dim]) {
+                    ++squeezedCount;
+                }
+                used += childRect.pos(dim) + childRect.extent(dim) + margins[c * 4 + 2 + dim];
+            }
+        }
+        final int total = end - start;
+
+        float extraSpace = space - used;
+        float spacer = 0F;
+        float extraMargin = 0F;
+        float eater = 0F;
+
+        if(extraSpace > 0) {
+            if(sumOfFillers <= 0F && total > 0) {
+                switch (justify[p]) {
+                    case LAY_JUSTIFY:
+                        spacer = extraSpace / (float)(total - 1);
+                        break;
+                    case LAY_START:
+                        break;
+                    case LAY_END:
+                        extraMargin = extraSpace;
+                        break;
+                    default:
+                        extraMargin = extraSpace / 2.0F;
+                        break;
+                }
+            }
+        } else if(squeezedCount > 0) {
+            eater = extraSpace / (float)squeezedCount;
+        }
+
+        // second pass: distribute and rescale
+        float x = rect.pos(dim) + paddings[p * 4 + dim];
+        if(total >= WIDE_RUN) {
+            _distributeWide(ctx.runScratch, rects, start, end, dim, x, gap,
+                    extraSpace, sumOfFillers, eater, extraMargin, spacer);
+            return;
+        }
+        float x1;
+        for(int k = start; k < end; k++) {
+            final int c = kids[k];
+            LayoutContext.LayoutRect childRect = rects[ids[c]];
+
+            x += childRect.pos(dim) + extraMargin;
+            if(align[c * 2 + dim] == LAY_HFILL) { // grow
+                x1 = x + extraSpace * growFactors[c] / sumOfFillers;
+            } else if(fixed[c * 2 + dim]) {
+                x1 = x + childRect.extent(dim);
+            } else { // squeeze
+                x1 = x + Math.max(0.0F, childRect.extent(dim) + eater);
+            }
+
+            childRect.setPos(dim, x); // pos
+            childRect.setExtent(dim, x1 - x); // size
+            x = x1 + margins[c * 4 + 2 + dim] + gap;
+            extraMargin = spacer;
+        }
+    }
+
+    /**
+     * Second pass of arrangeStacked over a long run of children. Sizes of the children don't depend on
+     * each other and are computed first, then positions are accumulated in a single sequential loop.
+     */
+    private void _distributeWide(float[] scratch, LayoutContext.LayoutRect[] rects, int start, int end, int dim, float x,
+                                 float gap, float extraSpace, float sumOfFillers, float eater, float extraMargin, float spacer) {
+        final int n = end - start;
+        for(int i = 0; i < n; i++) {
+            LayoutContext.LayoutRect childRect = rects[ids[kids[start + i]]];
+            scratch[i] = childRect.pos(dim);
+            scratch[n + i] = childRect.extent(dim);
+        }
+
+        // sizes
+        for(int i = 0; i < n; i++) {
+            final int k = (start + i) * 2 + dim;
+            final float size = scratch[n + i];
+            final float squeezed = kidFixed[k] ? size : Math.max(0.0F, size + eater);
+            scratch[n * 2 + i] = kidAlign[k] == LAY_HFILL
+                    ? extraSpace * kidGrowFactors[start + i] / sumOfFillers
+                    : squeezed;
+        }
+
+        // positions
+        float x1;
+        for(int i = 0; i < n; i++) {
+            LayoutContext.LayoutRect childRect = rects[ids[kids[start + i]]];
+            x += scratch[i] + extraMargin;
+            x1 = x + scratch[n * 2 + i];
+            childRect.setPos(dim, x); // pos
+            childRect.setExtent(dim, x1 - x); // size
+            x = x1 + kidMargins[(start + i) * 2 + dim] + gap;
+            extraMargin = spacer;
+        }
+    }
+
+    /**
+     * lay_arrange_overlay_squeezed_range over all children of an item
+     */
+    private void arrangeSqueezed(LayoutContext.LayoutRect[] rects, int p, int dim) {
+        LayoutContext.LayoutRect rect = rects[ids[p]];
+        final float offset = rect.pos(dim) + paddings[p * 4 + dim];
+        final float space = rect.extent(dim) - paddings[p * 4 + dim] - paddings[p * 4 + 2 + dim];
+        final int end = kidsStart[p + 1];
+        for(int k = kidsStart[p]; k < end; k++) {
+            final int c = kids[k];
+            LayoutContext.LayoutRect childRect = rects[ids[c]];
+            final float wmargin = margins[c * 4 + 2 + dim];
+            float minSize = Math.max(0, space - childRect.pos(dim) - wmargin);
+            switch (align[c * 2 + dim]) {
+                case LAY_HCENTER:
+                    childRect.setExtent(dim, Math.min(childRect.extent(dim), minSize));
+                    childRect.setPos(dim, childRect.pos(dim) + (space - childRect.extent(dim)) / 2F - wmargin);
+                    break;
+                case LAY_RIGHT:
+                    childRect.setExtent(dim, Math.min(childRect.extent(dim), minSize));
+                    childRect.setPos(dim, space - childRect.extent(dim) - wmargin);
+                    break;
+                case LAY_HFILL:
+                    childRect.setExtent(dim, minSize);
+                    break;
+                default:
+                    childRect.setExtent(dim, Math.min(childRect.extent(dim), minSize));
+                    break;
+            }
+            childRect.setPos(dim, childRect.pos(dim) + offset);
+        }
+    }
+
+    /**
+     * arrangeSqueezed over a long run of children, all of which are computed independently
+     */
+    private void arrangeSqueezedWide(float[] scratch, LayoutContext.LayoutRect[] rects, int p, int dim) {
+        LayoutContext.LayoutRect rect = rects[ids[p]];
+        final float offset = rect.pos(dim) + paddings[p * 4 + dim];
+        final float space = rect.extent(dim) - paddings[p * 4 + dim] - paddings[p * 4 + 2 + dim];
+        final int start = kidsStart[p];
+        final int n = kidsStart[p + 1] - start;
+        for(int i = 0; i < n; i++) {
+            LayoutContext.LayoutRect childRect = rects[ids[kids[start + i]]];
+            scratch[i] = childRect.pos(dim);
+            scratch[n + i] = childRect.extent(dim);
+        }
+
+        for(int i = 0; i < n; i++) {
+            final int k = (start + i) * 2 + dim;
+            final int childAlign = kidAlign[k];
+            final float wmargin = kidMargins[k];
+            final float pos = scratch[i];
+            final float minSize = Math.max(0, space - pos - wmargin);
+            final float size = childAlign == LAY_HFILL ? minSize : Math.min(scratch[n + i], minSize);
+            final float centered = pos + (space - size) / 2F - wmargin;
+            final float right = space - size - wmargin;
+            final float aligned = childAlign == LAY_HCENTER ? centered : childAlign == LAY_RIGHT ? right : pos;
+            scratch[i] = aligned + offset;
+            scratch[n + i] = size;
+        }
+
+        for(int i = 0; i < n; i++) {
+            LayoutContext.LayoutRect childRect = rects[ids[kids[start + i]]];
+            childRect.setPos(dim, scratch[i]);
+            childRect.setExtent(dim, scratch[n + i]);
+        }
+    }
+
+    /**
+     * lay_arrange_overlay
+     */
+    private void arrangeOverlay(LayoutContext.LayoutRect[] rects, int p, int dim) {
+        LayoutContext.LayoutRect rect = rects[ids[p]];
+        final float offset = rect.pos(dim) + paddings[p * 4 + dim];
+        final float space = rect.extent(dim) - paddings[p * 4 + dim] - paddings[p * 4 + 2 + dim];
+        final int end = kidsStart[p + 1];
+        for(int k = kidsStart[p]; k < end; k++) {
+            final int c = kids[k];
+            LayoutContext.LayoutRect childRect = rects[ids[c]];
+            final float wmargin = margins[c * 4 + 2 + dim];
+            switch (align[c * 2 + dim]) {
+                case LAY_HCENTER:
+                    childRect.setPos(dim, childRect.pos(dim) + (space - childRect.extent(dim)) / 2F - wmargin);
+                    break;
+                case LAY_RIGHT:
+                    childRect.setPos(dim, childRect.pos(dim) + space - childRect.extent(dim) - margins[c * 4 + dim] - wmargin);
+                    break;
+                case LAY_HFILL:
+                    childRect.setExtent(dim, Math.max(0, space - childRect.pos(dim) - wmargin));
+                    break;
+                default:
+                    break;
+            }
+            childRect.setPos(dim, childRect.pos(dim) + offset);
+        }
+    }
+}
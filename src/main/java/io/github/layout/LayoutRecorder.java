@@ -0,0 +1,332 @@
+package io.github.layout;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Records every mutating call made on a {@link LayoutContext} into a compact binary trace.
+ * Trace can be saved and later re-executed against a fresh context with {@link #replay},
+ * which is useful for reproducing and profiling layouts that are built dynamically.
+ * <p>
+ * Recording is enabled with {@link Layout#laySetRecorder}. Trace starts with a 4 byte magic
+ * and a version byte, followed by a sequence of commands. Each command is a single opcode
+ * byte followed by its arguments: item ids and flags are written as unsigned varints,
+ * floats are written as 4 bytes in little endian order.
+ */
+@SuppressWarnings("unused")
+public final class LayoutRecorder {
+
+    static final int MAGIC = 0x5459414C; // "LAYT"
+    static final int VERSION = 1;
+
+    static final byte OP_RESET_CONTEXT = 0;
+    static final byte OP_ITEM = 1;
+    static final byte OP_INSERT = 2;
+    static final byte OP_APPEND = 3;
+    static final byte OP_PUSH = 4;
+    static final byte OP_SET_SIZE = 5;
+    static final byte OP_SET_BEHAVE = 6;
+    static final byte OP_SET_CONTAIN = 7;
+    static final byte OP_SET_MARGINS = 8;
+    static final byte OP_SET_GROW = 9;
+    static final byte OP_CLEAR_ITEM_BREAK = 10;
+    static final byte OP_RUN_CONTEXT = 11;
+    static final byte OP_RUN_ITEM = 12;
+    static final byte OP_SET_SCROLL = 13;
+    static final byte OP_SET_PADDING = 14;
+    static final byte OP_SET_GAP = 15;
+    static final byte OP_REWIND = 16;
+
+    private byte[] buf = new byte[256];
+    private int size;
+
+    public LayoutRecorder() {
+        writeHeader();
+    }
+
+    /**
+     * Discards everything recorded so far
+     */
+    public void clear() {
+        size = 0;
+        writeHeader();
+    }
+
+    /**
+     * Returns number of bytes recorded, including header
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns a copy of recorded trace
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, size);
+    }
+
+    /**
+     * Writes recorded trace to given stream
+     */
+    public void writeTo(@NotNull OutputStream out) throws IOException {
+        out.write(buf, 0, size);
+    }
+
+    /**
+     * Re-executes recorded trace against given context. The context is expected to be in the
+     * same state as the recorded one was when recording started, typically a freshly created
+     * or reset context.
+     *
+     * @throws IllegalArgumentException if trace is malformed, refers to items which don't exist,
+     * would make an invalid tree or set internal flags, or has unsupported version
+     */
+    public static void replay(@NotNull LayoutContext ctx, byte[] trace) {
+        replay(ctx, trace, 0, trace.length);
+    }
+
+    /**
+     * @see #replay(LayoutContext, byte[])
+     */
+    public static void replay(@NotNull LayoutContext ctx, byte[] trace, int offset, int length) {
+        TraceReader in = new TraceReader(trace, offset, offset + length);
+        if(length < 5 || in.readInt() != MAGIC) {
+            throw new IllegalArgumentException("Given data is not a layout trace");
+        }
+        int version = in.readByte();
+        if(version != VERSION) {
+            throw new IllegalArgumentException("Unsupported layout trace version, expected " + VERSION + ", given: " + version);
+        }
+        while (in.pos < in.end) {
+            byte op = (byte) in.readByte();
+            switch (op) {
+                case OP_RESET_CONTEXT:
+                    Layout.layResetContext(ctx);
+                    break;
+                case OP_ITEM:
+                    Layout.layItem(ctx);
+                    break;
+                case OP_INSERT: {
+                    int parent = in.readItem(ctx);
+                    Layout.layInsert(ctx, parent, in.readChild(ctx, parent));
+                    break;
+                }
+                case OP_APPEND: {
+                    int earlier = in.readItem(ctx);
+                    Layout.layAppend(ctx, earlier, in.readChild(ctx, earlier));
+                    break;
+                }
+                case OP_PUSH: {
+                    int parent = in.readItem(ctx);
+                    Layout.layPush(ctx, parent, in.readChild(ctx, parent));
+                    break;
+                }
+                case OP_SET_SIZE:
+                    Layout.laySetSize(ctx, in.readItem(ctx), in.readFloat(), in.readFloat());
+                    break;
+                case OP_SET_BEHAVE:
+                    //noinspection MagicConstant
+                    Layout.laySetBehave(ctx, in.readItem(ctx), in.readFlags(Layout.LAY_ITEM_LAYOUT_MASK));
+                    break;
+                case OP_SET_CONTAIN:
+                    //noinspection MagicConstant
+                    Layout.laySetContain(ctx, in.readItem(ctx), in.readFlags(Layout.LAY_ITEM_BOX_MASK));
+                    break;
+                case OP_SET_MARGINS:
+                    Layout.laySetMargins(ctx, in.readItem(ctx), in.readFloat(), in.readFloat(), in.readFloat(), in.readFloat());
+                    break;
+                case OP_SET_GROW:
+                    Layout.laySetGrow(ctx, in.readItem(ctx), in.readFloat());
+                    break;
+                case OP_CLEAR_ITEM_BREAK:
+                    Layout.layClearItemBreak(ctx, in.readItem(ctx));
+                    break;
+                case OP_RUN_CONTEXT:
+                    Layout.layRunContext(ctx);
+                    break;
+                case OP_RUN_ITEM:
+                    Layout.layRunItem(ctx, in.readItem(ctx));
+                    break;
+                case OP_SET_SCROLL:
+                    Layout.laySetScroll(ctx, in.readItem(ctx), in.readFloat(), in.readFloat());
+                    break;
+                case OP_SET_PADDING:
+                    Layout.laySetPadding(ctx, in.readItem(ctx), in.readFloat(), in.readFloat(), in.readFloat(), in.readFloat());
+                    break;
+                case OP_SET_GAP:
+                    Layout.laySetGap(ctx, in.readItem(ctx), in.readFloat(), in.readFloat());
+                    break;
+                case OP_REWIND: {
+                    int mark = in.readVarInt();
+                    if(mark < 0 || mark > ctx.count) {
+                        throw new IllegalArgumentException("Invalid mark " + mark + " in layout trace at offset " + in.pos);
+                    }
+                    Layout.layRewind(ctx, mark);
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown layout trace opcode " + op + " at offset " + (in.pos - 1));
+            }
+        }
+    }
+
+    void record(byte op) {
+        ensure(1);
+        buf[size++] = op;
+    }
+
+    void record(byte op, int id) {
+        ensure(1 + 5);
+        buf[size++] = op;
+        writeVarInt(id);
+    }
+
+    void record(byte op, int a, int b) {
+        ensure(1 + 5 + 5);
+        buf[size++] = op;
+        writeVarInt(a);
+        writeVarInt(b);
+    }
+
+    void record(byte op, int id, float a) {
+        ensure(1 + 5 + 4);
+        buf[size++] = op;
+        writeVarInt(id);
+        writeFloat(a);
+    }
+
+    void record(byte op, int id, float a, float b) {
+        ensure(1 + 5 + 4 * 2);
+        buf[size++] = op;
+        writeVarInt(id);
+        writeFloat(a);
+        writeFloat(b);
+    }
+
+    void record(byte op, int id, float a, float b, float c, float d) {
+        ensure(1 + 5 + 4 * 4);
+        buf[size++] = op;
+        writeVarInt(id);
+        writeFloat(a);
+        writeFloat(b);
+        writeFloat(c);
+        writeFloat(d);
+    }
+
+    private void writeHeader() {
+        ensure(5);
+        writeInt(MAGIC);
+        buf[size++] = (byte) VERSION;
+    }
+
+    private void ensure(int bytes) {
+        if(size + bytes > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + bytes));
+        }
+    }
+
+    private void writeVarInt(int value) {
+        while ((value & ~0x7F) != 0) {
+            buf[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[size++] = (byte) value;
+    }
+
+    private void writeFloat(float value) {
+        writeInt(Float.floatToRawIntBits(value));
+    }
+
+    private void writeInt(int value) {
+        buf[size++] = (byte) value;
+        buf[size++] = (byte) (value >>> 8);
+        buf[size++] = (byte) (value >>> 16);
+        buf[size++] = (byte) (value >>> 24);
+    }
+
+    private static final class TraceReader {
+        final byte[] data;
+        final int end;
+        int pos;
+
+        TraceReader(byte[] data, int pos, int end) {
+            this.data = data;
+            this.pos = pos;
+            this.end = end;
+        }
+
+        int readByte() {
+            if(pos >= end) {
+                throw new IllegalArgumentException("Unexpected end of layout trace");
+            }
+            return data[pos++] & 0xFF;
+        }
+
+        int readVarInt() {
+            int value = 0;
+            int shift = 0;
+            int b;
+            do {
+                if(shift > 28) {
+                    throw new IllegalArgumentException("Malformed varint in layout trace at offset " + pos);
+                }
+                b = readByte();
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        /**
+         * Reads id of an existing item
+         */
+        int readItem(LayoutContext ctx) {
+            final int at = pos;
+            final int id = readVarInt();
+            if(id < 0 || id >= ctx.count) {
+                throw new IllegalArgumentException("Invalid item id " + id + " in layout trace at offset " + at);
+            }
+            return id;
+        }
+
+        /**
+         * Reads flags which must only have bits of given mask
+         */
+        int readFlags(int mask) {
+            final int at = pos;
+            final int flags = readVarInt();
+            if((flags & ~mask) != 0) {
+                throw new IllegalArgumentException("Invalid flags 0x" + Integer.toHexString(flags) + " in layout trace at offset " + at);
+            }
+            return flags;
+        }
+
+        /**
+         * Reads id of an existing item which is not inserted yet and can be inserted into or next to
+         * the given one without making a cycle
+         */
+        int readChild(LayoutContext ctx, int other) {
+            final int at = pos;
+            final int id = readItem(ctx);
+            boolean valid = id != 0 && (Layout.layGetItem(ctx, id).flags & Layout.LAY_ITEM_INSERTED) == 0;
+            for(int ancestor = other; valid && ancestor != Layout.LAY_INVALID_ID; ancestor = Layout.layGetItem(ctx, ancestor).parent) {
+                valid = ancestor != id;
+            }
+            if(!valid) {
+                throw new IllegalArgumentException("Item " + id + " can't be inserted in layout trace at offset " + at);
+            }
+            return id;
+        }
+
+        int readInt() {
+            return readByte() | (readByte() << 8) | (readByte() << 16) | (readByte() << 24);
+        }
+
+        float readFloat() {
+            return Float.intBitsToFloat(readInt());
+        }
+    }
+}
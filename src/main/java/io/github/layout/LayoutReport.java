@@ -0,0 +1,298 @@
+package io.github.layout;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+import static io.github.layout.Layout.*;
+import static io.github.layout.LayoutBoxFlags.*;
+
+/**
+ * Shape of the tree of a context and, optionally, where time of its layout is spent, built by
+ * {@link Layout#layAnalyze}. Only items reachable from the root are taken into account.
+ * <p>
+ * {@link #toJson()} returns the report in a machine-readable form, e.g. to track layout complexity
+ * of screens over time. Fan-out histogram has power of two buckets: bucket 0 counts leaves, bucket
+ * i > 0 counts items with 2^(i-1) to 2^i - 1 children.
+ * <p>
+ * Hot subtrees are ranked by self time of their roots, which excludes time spent in their
+ * children, so that the list points at the items where time is actually spent rather than at
+ * the chain of their ancestors. Inclusive time of every listed subtree is reported as well.
+ */
+@SuppressWarnings("unused")
+public final class LayoutReport {
+
+    /**
+     * Maximum number of subtrees listed by hotSubtrees
+     */
+    public static final int HOT_SUBTREES = 10;
+
+    int items;
+    int maxDepth;
+    double averageDepth;
+    int maxFanOut;
+    int[] fanOutHistogram = new int[0];
+    int rows;
+    int columns;
+    int wrappedRows;
+    int wrappedColumns;
+    int overlays;
+    int leaves;
+    int wrappedLines;
+    // -1 if layout wasn't profiled
+    long totalNanos = -1;
+    // ids of subtrees whose roots have the largest self time, slowest first
+    int[] hotSubtrees = new int[0];
+    int[] hotSubtreeDepths = new int[0];
+    int[] hotSubtreeItems = new int[0];
+    long[] hotSubtreeNanos = new long[0];
+    long[] hotSubtreeSelfNanos = new long[0];
+
+    private LayoutReport() {}
+
+    /**
+     * @param nanos time spent in layout of every item including its descendants, or null if not profiled
+     */
+    static @NotNull LayoutReport build(@NotNull LayoutContext ctx, long[] nanos) {
+        LayoutReport report = new LayoutReport();
+        if(ctx.count == 0) return report;
+
+        // pre-order of reachable items, with depths
+        final int[] order = new int[ctx.count];
+        final int[] depths = new int[ctx.count];
+        int length = 0;
+        int depth = 0;
+        long depthSum = 0;
+        int item = 0;
+        for(;;) {
+            LayoutItem pitem = layGetItem(ctx, item);
+            order[length++] = item;
+            depths[item] = depth;
+            depthSum += depth;
+            report.maxDepth = Math.max(report.maxDepth, depth);
+
+            int children = 0;
+            for(int child = pitem.firstChild; child != LAY_INVALID_ID; child = layGetItem(ctx, child).nextSibling) {
+                children++;
+            }
+            report.maxFanOut = Math.max(report.maxFanOut, children);
+            int bucket = 32 - Integer.numberOfLeadingZeros(children);
+            if(bucket >= report.fanOutHistogram.length) {
+                report.fanOutHistogram = Arrays.copyOf(report.fanOutHistogram, bucket + 1);
+            }
+            report.fanOutHistogram[bucket]++;
+
+            if(children == 0) {
+                report.leaves++;
+            } else {
+                switch (pitem.flags & LAY_ITEM_BOX_MODEL_MASK) {
+                    case LAY_ROW | LAY_WRAP:
+                        report.wrappedRows++;
+                        break;
+                    case LAY_COLUMN | LAY_WRAP:
+                        report.wrappedColumns++;
+                        break;
+                    case LAY_ROW:
+                        report.rows++;
+                        break;
+                    case LAY_COLUMN:
+                        report.columns++;
+                        break;
+                    default:
+                        report.overlays++;
+                        break;
+                }
+            }
+            if(pitem.lines != null && pitem.lines.valid) {
+                report.wrappedLines += pitem.lines.count;
+            }
+
+            if(pitem.firstChild != LAY_INVALID_ID) {
+                item = pitem.firstChild;
+                depth++;
+                continue;
+            }
+            while (item != 0 && layGetItem(ctx, item).nextSibling == LAY_INVALID_ID) {
+                item = layGetItem(ctx, item).parent;
+                depth--;
+            }
+            if(item == 0) break;
+            item = layGetItem(ctx, item).nextSibling;
+        }
+        report.items = length;
+        report.averageDepth = (double) depthSum / length;
+
+        if(nanos != null) {
+            // reversed pre-order visits children before their parents
+            final int[] subtreeItems = new int[ctx.count];
+            final long[] selfNanos = new long[ctx.count];
+            for(int i = length - 1; i >= 0; i--) {
+                final int id = order[i];
+                subtreeItems[id]++;
+                selfNanos[id] += nanos[id];
+                if(id != 0) {
+                    final int parent = layGetItem(ctx, id).parent;
+                    subtreeItems[parent] += subtreeItems[id];
+                    selfNanos[parent] -= nanos[id];
+                }
+            }
+            report.totalNanos = nanos[0];
+
+            // selection of the slowest subtrees, list is short
+            final int hot = Math.min(HOT_SUBTREES, length);
+            report.hotSubtrees = new int[hot];
+            report.hotSubtreeDepths = new int[hot];
+            report.hotSubtreeItems = new int[hot];
+            report.hotSubtreeNanos = new long[hot];
+            report.hotSubtreeSelfNanos = new long[hot];
+            int found = 0;
+            for(int i = 0; i < length; i++) {
+                final int id = order[i];
+                int at = found;
+                while (at > 0 && report.hotSubtreeSelfNanos[at - 1] < selfNanos[id]) {
+                    at--;
+                }
+                if(at >= hot) continue;
+                final int moved = Math.min(found, hot - 1) - at;
+                System.arraycopy(report.hotSubtrees, at, report.hotSubtrees, at + 1, moved);
+                System.arraycopy(report.hotSubtreeSelfNanos, at, report.hotSubtreeSelfNanos, at + 1, moved);
+                report.hotSubtrees[at] = id;
+                report.hotSubtreeSelfNanos[at] = selfNanos[id];
+                found = Math.min(found + 1, hot);
+            }
+            for(int i = 0; i < hot; i++) {
+                report.hotSubtreeDepths[i] = depths[report.hotSubtrees[i]];
+                report.hotSubtreeItems[i] = subtreeItems[report.hotSubtrees[i]];
+                report.hotSubtreeNanos[i] = nanos[report.hotSubtrees[i]];
+            }
+        }
+        return report;
+    }
+
+    /**
+     * Returns number of items reachable from the root
+     */
+    public int items() {
+        return items;
+    }
+
+    public int maxDepth() {
+        return maxDepth;
+    }
+
+    public double averageDepth() {
+        return averageDepth;
+    }
+
+    public int maxFanOut() {
+        return maxFanOut;
+    }
+
+    /**
+     * Returns number of items with children count falling into given bucket, see the class description
+     */
+    public int fanOutHistogram(int bucket) {
+        return bucket < fanOutHistogram.length ? fanOutHistogram[bucket] : 0;
+    }
+
+    /**
+     * Returns number of containers with given box model, which is one of LAY_ROW, LAY_COLUMN,
+     * LAY_ROW | LAY_WRAP, LAY_COLUMN | LAY_WRAP, or LAY_LAYOUT for every other container
+     */
+    public int containers(int model) {
+        switch (model) {
+            case LAY_ROW: return rows;
+            case LAY_COLUMN: return columns;
+            case LAY_ROW | LAY_WRAP: return wrappedRows;
+            case LAY_COLUMN | LAY_WRAP: return wrappedColumns;
+            case LAY_LAYOUT: return overlays;
+            default: throw new IllegalArgumentException("Invalid box model: " + model);
+        }
+    }
+
+    public int leaves() {
+        return leaves;
+    }
+
+    /**
+     * Returns total number of lines of wrapped containers, as broken by the latest layout run
+     */
+    public int wrappedLines() {
+        return wrappedLines;
+    }
+
+    /**
+     * Returns duration of the profiled layout run, or -1 if it wasn't profiled
+     */
+    public long totalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * Returns number of subtrees listed by the profile, 0 if layout wasn't profiled
+     */
+    public int hotSubtreesCount() {
+        return hotSubtrees.length;
+    }
+
+    /**
+     * Returns root item of the i-th slowest subtree, by self time of the root
+     */
+    public int hotSubtree(int i) {
+        return hotSubtrees[i];
+    }
+
+    /**
+     * Returns time spent in layout of the i-th slowest subtree, including its root
+     */
+    public long hotSubtreeNanos(int i) {
+        return hotSubtreeNanos[i];
+    }
+
+    /**
+     * Returns time spent in layout of the root of the i-th slowest subtree, excluding its children
+     */
+    public long hotSubtreeSelfNanos(int i) {
+        return hotSubtreeSelfNanos[i];
+    }
+
+    public @NotNull String toJson() {
+        StringBuilder sb = new StringBuilder(512);
+        sb.append("{\"items\":").append(items);
+        sb.append(",\"maxDepth\":").append(maxDepth);
+        sb.append(",\"averageDepth\":").append(averageDepth);
+        sb.append(",\"maxFanOut\":").append(maxFanOut);
+        sb.append(",\"fanOutHistogram\":[");
+        for(int i = 0; i < fanOutHistogram.length; i++) {
+            if(i > 0) sb.append(',');
+            sb.append(fanOutHistogram[i]);
+        }
+        sb.append("],\"containers\":{\"row\":").append(rows);
+        sb.append(",\"column\":").append(columns);
+        sb.append(",\"wrappedRow\":").append(wrappedRows);
+        sb.append(",\"wrappedColumn\":").append(wrappedColumns);
+        sb.append(",\"overlay\":").append(overlays);
+        sb.append("},\"leaves\":").append(leaves);
+        sb.append(",\"wrappedLines\":").append(wrappedLines);
+        if(totalNanos >= 0) {
+            sb.append(",\"profile\":{\"totalNanos\":").append(totalNanos);
+            sb.append(",\"hotSubtrees\":[");
+            for(int i = 0; i < hotSubtrees.length; i++) {
+                if(i > 0) sb.append(',');
+                sb.append("{\"item\":").append(hotSubtrees[i]);
+                sb.append(",\"depth\":").append(hotSubtreeDepths[i]);
+                sb.append(",\"items\":").append(hotSubtreeItems[i]);
+                sb.append(",\"nanos\":").append(hotSubtreeNanos[i]);
+                sb.append(",\"selfNanos\":").append(hotSubtreeSelfNanos[i]);
+                sb.append('}');
+            }
+            sb.append("]}");
+        }
+        return sb.append('}').toString();
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+}
@@ -0,0 +1,300 @@
+package io.github.layout;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static io.github.layout.Layout.*;
+
+/**
+ * Cache of layout results stored in a directory on disk, used by {@link Layout#layRunCached} to
+ * skip layout of trees which were already laid out before, e.g. on a previous launch of the application.
+ * <p>
+ * Entries are keyed by a 128-bit hash of everything layout depends on: structure of the tree reachable
+ * from the root, and flags, sizes, margins, grow factors, paddings and gaps of its items. Every entry is
+ * a file holding rects of the items, which is memory mapped when read. Total size of the entries is kept
+ * under the given bound by deleting least recently used ones, recency is kept in modification time
+ * of the files so that it survives restarts.
+ * <p>
+ * The cache is safe to use from several threads. Failing to read or write an entry is treated
+ * like a miss, so a broken or full disk never breaks layout.
+ */
+@SuppressWarnings("unused")
+public final class LayoutResultCache {
+
+    private static final int MAGIC = 0x4C415952; // LAYR
+    private static final int VERSION = 1;
+    // magic, version, hash, number of items
+    private static final int HEADER_BYTES = 4 + 4 + 16 + 4;
+    private static final String SUFFIX = ".lay";
+    // number of inputs of an item hashed into the key
+    private static final int KEY_VALUES = 16;
+
+    private final Path directory;
+    private final long maxBytes;
+    // file name to file size, in order of access
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75F, true);
+    private long totalBytes;
+
+    /**
+     * @param directory directory which holds the entries, created if it doesn't exist
+     * @param maxBytes maximum total size of the entries
+     * @throws UncheckedIOException if the directory can't be created or listed
+     */
+    public LayoutResultCache(@NotNull Path directory, long maxBytes) {
+        assert maxBytes > 0;
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        try {
+            Files.createDirectories(directory);
+            List<Path> files = new ArrayList<>();
+            try (Stream<Path> list = Files.list(directory)) {
+                list.filter(path -> path.getFileName().toString().endsWith(SUFFIX)).forEach(files::add);
+            }
+            // least recently used first
+            files.sort(Comparator.comparing(LayoutResultCache::_lastModified));
+            for (Path file : files) {
+                long size = Files.size(file);
+                entries.put(file.getFileName().toString(), size);
+                totalBytes += size;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        _evict(null);
+    }
+
+    /**
+     * Returns number of entries in the cache
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns total size of the entries in bytes
+     */
+    public synchronized long sizeBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Deletes all entries
+     */
+    public synchronized void clear() {
+        for (String name : entries.keySet()) {
+            _delete(name);
+        }
+        entries.clear();
+        totalBytes = 0;
+    }
+
+    /**
+     * Input state of a tree, in pre-order of the items reachable from the root
+     */
+    static final class Key {
+        final int[] order;
+        final long hash0;
+        final long hash1;
+
+        Key(int[] order, long hash0, long hash1) {
+            this.order = order;
+            this.hash0 = hash0;
+            this.hash1 = hash1;
+        }
+
+        String fileName() {
+            return String.format("%016x%016x", hash0, hash1) + SUFFIX;
+        }
+    }
+
+    static @NotNull Key key(@NotNull LayoutContext ctx) {
+        int[] order = new int[ctx.count];
+        int length = 0;
+        long h0 = 0x736f6d6570736575L;
+        long h1 = 0x646f72616e646f6dL;
+        // inputs of a single item, reused for every item
+        final int[] values = new int[KEY_VALUES];
+        int item = 0;
+        for(;;) {
+            LayoutItem pitem = layGetItem(ctx, item);
+            order[length++] = item;
+            values[0] = item;
+            values[1] = item == 0 ? LAY_INVALID_ID : pitem.parent;
+            values[2] = pitem.flags;
+            values[3] = Float.floatToIntBits(pitem.sizeX);
+            values[4] = Float.floatToIntBits(pitem.sizeY);
+            values[5] = Float.floatToIntBits(pitem.marginLeft);
+            values[6] = Float.floatToIntBits(pitem.marginTop);
+            values[7] = Float.floatToIntBits(pitem.marginRight);
+            values[8] = Float.floatToIntBits(pitem.marginBottom);
+            values[9] = Float.floatToIntBits(pitem.grow);
+            values[10] = Float.floatToIntBits(pitem.padding(0));
+            values[11] = Float.floatToIntBits(pitem.padding(1));
+            values[12] = Float.floatToIntBits(pitem.padding(2));
+            values[13] = Float.floatToIntBits(pitem.padding(3));
+            values[14] = Float.floatToIntBits(pitem.gap());
+            values[15] = Float.floatToIntBits(pitem.crossGap());
+            for (int value : values) {
+                h0 = _mix(h0, value, 0x87c37b91114253d5L);
+                h1 = _mix(h1, value, 0x4cf5ad432745937fL);
+            }
+
+            if(pitem.firstChild != LAY_INVALID_ID) {
+                item = pitem.firstChild;
+                continue;
+            }
+            while (item != 0 && layGetItem(ctx, item).nextSibling == LAY_INVALID_ID) {
+                item = layGetItem(ctx, item).parent;
+            }
+            if(item == 0) break;
+            item = layGetItem(ctx, item).nextSibling;
+        }
+        h0 = _finish(h0 ^ length);
+        h1 = _finish(h1 ^ length);
+        return new Key(length == order.length ? order : Arrays.copyOf(order, length), h0, h1);
+    }
+
+    private static long _mix(long h, int value, long c) {
+        long k = (value & 0xFFFFFFFFL) * c;
+        k = Long.rotateLeft(k, 31) * 0x9E3779B97F4A7C15L;
+        h ^= k;
+        return Long.rotateLeft(h, 27) * 5 + 0x52dce729;
+    }
+
+    private static long _finish(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Reads rects of the items in the key from a matching entry.
+     * Returns false and leaves rects untouched if there is none.
+     */
+    synchronized boolean load(@NotNull LayoutContext ctx, @NotNull Key key) {
+        final String name = key.fileName();
+        if(entries.get(name) == null) return false;
+        final Path file = directory.resolve(name);
+        final int[] order = key.order;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if(channel.size() != HEADER_BYTES + order.length * 16L) {
+                throw new IOException("Unexpected size of layout cache entry " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if(buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                    || buffer.getLong() != key.hash0 || buffer.getLong() != key.hash1
+                    || buffer.getInt() != order.length) {
+                throw new IOException("Layout cache entry " + file + " doesn't match its key");
+            }
+            for (int id : order) {
+                LayoutContext.LayoutRect rect = ctx.rects[id];
+                rect.x = buffer.getFloat();
+                rect.y = buffer.getFloat();
+                rect.w = buffer.getFloat();
+                rect.h = buffer.getFloat();
+            }
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return true;
+        } catch (IOException | RuntimeException e) {
+            _remove(name);
+            return false;
+        }
+    }
+
+    /**
+     * Writes rects of the items in the key into a new entry
+     */
+    synchronized void store(@NotNull LayoutContext ctx, @NotNull Key key) {
+        final String name = key.fileName();
+        final int[] order = key.order;
+        final long size = HEADER_BYTES + order.length * 16L;
+        if(size > maxBytes || size > Integer.MAX_VALUE) return;
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(key.hash0).putLong(key.hash1).putInt(order.length);
+        for (int id : order) {
+            LayoutContext.LayoutRect rect = ctx.rects[id];
+            buffer.putFloat(rect.x).putFloat(rect.y).putFloat(rect.w).putFloat(rect.h);
+        }
+        buffer.flip();
+
+        Path temp = null;
+        try {
+            // written aside and then moved, so that readers never see a partially written entry
+            temp = Files.createTempFile(directory, "entry", ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(temp, directory.resolve(name), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | UnsupportedOperationException e) {
+            if(temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                }
+            }
+            return;
+        }
+        Long previous = entries.put(name, size);
+        totalBytes += size - (previous != null ? previous : 0L);
+        _evict(name);
+    }
+
+    /**
+     * Deletes least recently used entries, except the given one, until the total size fits the bound
+     */
+    private void _evict(String keep) {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if(entry.getKey().equals(keep)) continue;
+            _delete(entry.getKey());
+            totalBytes -= entry.getValue();
+            iterator.remove();
+        }
+    }
+
+    private void _remove(String name) {
+        Long size = entries.remove(name);
+        if(size != null) {
+            totalBytes -= size;
+        }
+        _delete(name);
+    }
+
+    private void _delete(String name) {
+        try {
+            Files.deleteIfExists(directory.resolve(name));
+        } catch (IOException ignored) {
+            // e.g. still mapped on platforms which don't allow deleting mapped files, retried on next start
+        }
+    }
+
+    private static FileTime _lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
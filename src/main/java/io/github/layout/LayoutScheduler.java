@@ -0,0 +1,120 @@
+package io.github.layout;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+import static io.github.layout.LayoutCommandBuffer.*;
+
+/**
+ * Applies mutations collected by a {@link LayoutCommandBuffer} to a context once per frame.
+ * Producers on any thread append commands to the buffer, and the thread which owns the context
+ * calls {@link #runFrame()}, which drains pending commands, drops every command which was
+ * overwritten later in the same frame (last write wins per item and property), applies the rest
+ * and runs the layout once.
+ * <p>
+ * Commands that refer to items which don't exist in the context at the moment of applying, e.g.
+ * because it has been reset since, are ignored.
+ */
+@SuppressWarnings("unused")
+public final class LayoutScheduler {
+
+    private final LayoutContext ctx;
+    private final LayoutCommandBuffer buffer;
+
+    private final int[] cmds;
+    private final int[] items;
+    private final long[] args;
+    // frame stamp of the latest write per item and property
+    private int[] stamps = new int[0];
+    private int frame;
+
+    public LayoutScheduler(@NotNull LayoutContext ctx, @NotNull LayoutCommandBuffer buffer) {
+        this.ctx = ctx;
+        this.buffer = buffer;
+        int capacity = buffer.capacity();
+        this.cmds = new int[capacity];
+        this.items = new int[capacity];
+        this.args = new long[capacity * 2];
+    }
+
+    public @NotNull LayoutCommandBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Drains all pending commands, applies them and runs the layout of the context.
+     * Must be called from the thread which owns the context.
+     * Returns the number of commands which were applied after coalescing.
+     */
+    public int runFrame() {
+        int applied = applyPending();
+        Layout.layRunContext(ctx);
+        return applied;
+    }
+
+    /**
+     * Like runFrame, but doesn't run the layout.
+     */
+    public int applyPending() {
+        int n = buffer.drain(cmds, items, args, cmds.length);
+        if(n == 0) return 0;
+
+        int count = ctx.count;
+        if(stamps.length < count * CMD_COUNT) {
+            stamps = Arrays.copyOf(stamps, Math.max(count, ctx.capacity) * CMD_COUNT);
+        }
+        if(++frame == 0) {
+            // stamps wrapped around, forget all of them
+            Arrays.fill(stamps, 0);
+            frame = 1;
+        }
+
+        // walk backwards so that the latest write of every property is seen first
+        int applied = 0;
+        for(int i = n - 1; i >= 0; i--) {
+            int item = items[i];
+            if(item < 0 || item >= count) continue;
+            int cmd = cmds[i];
+            int stamp = item * CMD_COUNT + cmd;
+            if(stamps[stamp] == frame) continue;
+            stamps[stamp] = frame;
+            apply(cmd, item, args[i * 2], args[i * 2 + 1]);
+            applied++;
+        }
+        return applied;
+    }
+
+    private void apply(int cmd, int item, long a, long b) {
+        switch (cmd) {
+            case CMD_SET_SIZE:
+                Layout.laySetSize(ctx, item, unpackFirst(a), unpackSecond(a));
+                break;
+            case CMD_SET_BEHAVE:
+                //noinspection MagicConstant
+                Layout.laySetBehave(ctx, item, (int) a);
+                break;
+            case CMD_SET_CONTAIN:
+                //noinspection MagicConstant
+                Layout.laySetContain(ctx, item, (int) a);
+                break;
+            case CMD_SET_MARGINS:
+                Layout.laySetMargins(ctx, item, unpackFirst(a), unpackSecond(a), unpackFirst(b), unpackSecond(b));
+                break;
+            case CMD_SET_GROW:
+                Layout.laySetGrow(ctx, item, unpackFirst(a));
+                break;
+            case CMD_SET_SCROLL:
+                Layout.laySetScroll(ctx, item, unpackFirst(a), unpackSecond(a));
+                break;
+            case CMD_SET_PADDING:
+                Layout.laySetPadding(ctx, item, unpackFirst(a), unpackSecond(a), unpackFirst(b), unpackSecond(b));
+                break;
+            case CMD_SET_GAP:
+                Layout.laySetGap(ctx, item, unpackFirst(a), unpackSecond(a));
+                break;
+            default:
+                throw new IllegalStateException("Unknown layout command: " + cmd);
+        }
+    }
+}
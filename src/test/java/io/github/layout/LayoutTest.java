@@ -3,9 +3,15 @@ package io.github.layout;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static io.github.layout.LayoutBoxFlags.*;
@@ -560,6 +566,1476 @@ public class LayoutTest {
         assertVec4Equals(ctx.getRect(child, new float[4]), 40, 40, 50, 50);
     }
 
+    @Test
+    public void pixelSnapping1() {
+        int root = ctx.item();
+        ctx.setSize(root, 100, 10);
+        ctx.setContain(root, LAY_ROW);
+
+        int[] children = new int[3];
+        for (int i = 0; i < 3; i++) {
+            children[i] = ctx.item();
+            ctx.setBehave(children[i], LAY_FILL);
+            ctx.insert(root, children[i]);
+        }
+
+        int[] snapped = new int[ctx.itemsCount() * 4];
+        ctx.setPixelSnapping(1.5F, snapped);
+        ctx.runContext();
+
+        assertArrayEquals(new int[] { 0, 0, 150, 15 }, ctx.getSnappedRect(root, new int[4]));
+        // each child is 50 device pixels wide, rounding should not leave any gaps
+        assertArrayEquals(new int[] { 0, 0, 50, 15 }, ctx.getSnappedRect(children[0], new int[4]));
+        assertArrayEquals(new int[] { 50, 0, 50, 15 }, ctx.getSnappedRect(children[1], new int[4]));
+        assertArrayEquals(new int[] { 100, 0, 50, 15 }, ctx.getSnappedRect(children[2], new int[4]));
+
+        ctx.setPixelSnapping(1F, snapped);
+        ctx.runContext();
+
+        // 33.33 units per child, edges should meet while widths absorb rounding error
+        assertArrayEquals(new int[] { 0, 0, 33, 10 }, ctx.getSnappedRect(children[0], new int[4]));
+        assertArrayEquals(new int[] { 33, 0, 34, 10 }, ctx.getSnappedRect(children[1], new int[4]));
+        assertArrayEquals(new int[] { 67, 0, 33, 10 }, ctx.getSnappedRect(children[2], new int[4]));
+    }
+
+    @Test
+    public void recordAndReplay1() {
+        LayoutRecorder recorder = new LayoutRecorder();
+        ctx.setRecorder(recorder);
+
+        int root = ctx.item();
+        ctx.setSize(root, 100, 40);
+        ctx.setContain(root, LAY_ROW | LAY_WRAP | LAY_START);
+
+        int first = ctx.item();
+        ctx.setSize(first, 60, 10);
+        ctx.insert(root, first);
+
+        int pushed = ctx.item();
+        ctx.setSize(pushed, 30, 10);
+        ctx.setMargins(pushed, 1, 2, 3, 4);
+        ctx.push(root, pushed);
+
+        int appended = ctx.item();
+        ctx.setBehave(appended, LAY_HFILL);
+        ctx.setGrow(appended, 2);
+        ctx.setSize(appended, 0, 15);
+        ctx.append(first, appended);
+
+        ctx.runContext();
+        ctx.setRecorder(null);
+
+        LayoutContext replayed = new LayoutContext();
+        LayoutRecorder.replay(replayed, recorder.toByteArray());
+
+        assertEquals(ctx.itemsCount(), replayed.itemsCount());
+        for (int i = 0; i < ctx.itemsCount(); i++) {
+            assertEquals(ctx.getFlags(i), replayed.getFlags(i));
+            assertArrayEquals(ctx.getRect(i, new float[4]), replayed.getRect(i, new float[4]));
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> LayoutRecorder.replay(new LayoutContext(), new byte[] { 1, 2, 3 }));
+    }
+
+    @Test
+    public void replayMalformed1() {
+        LayoutRecorder[] traces = new LayoutRecorder[9];
+        for (int i = 0; i < traces.length; i++) {
+            traces[i] = new LayoutRecorder();
+            traces[i].record(LayoutRecorder.OP_ITEM);
+            traces[i].record(LayoutRecorder.OP_ITEM);
+        }
+        traces[0].record(LayoutRecorder.OP_SET_SIZE, 2, 10F, 10F);
+        traces[1].record(LayoutRecorder.OP_INSERT, 0, 7);
+        traces[2].record(LayoutRecorder.OP_RUN_ITEM, -1);
+        traces[3].record(LayoutRecorder.OP_REWIND, 3);
+        // root can't be a child, and children can't be inserted twice or into themselves
+        traces[4].record(LayoutRecorder.OP_PUSH, 1, 0);
+        traces[5].record(LayoutRecorder.OP_INSERT, 0, 1);
+        traces[5].record(LayoutRecorder.OP_INSERT, 0, 1);
+        traces[6].record(LayoutRecorder.OP_APPEND, 1, 1);
+        // flags outside of the masks, e.g. LAY_ITEM_INSERTED
+        traces[7].record(LayoutRecorder.OP_SET_CONTAIN, 0, 0x400);
+        traces[8].record(LayoutRecorder.OP_SET_BEHAVE, 1, 0x7fffffff);
+        // appending to an item outside of the tree is allowed
+        LayoutRecorder loose = new LayoutRecorder();
+        loose.record(LayoutRecorder.OP_ITEM);
+        loose.record(LayoutRecorder.OP_ITEM);
+        loose.record(LayoutRecorder.OP_ITEM);
+        loose.record(LayoutRecorder.OP_APPEND, 1, 2);
+        LayoutContext replayed = new LayoutContext();
+        LayoutRecorder.replay(replayed, loose.toByteArray());
+        assertEquals(2, replayed.nextSibling(1));
+        for (LayoutRecorder trace : traces) {
+            assertThrows(IllegalArgumentException.class, () -> LayoutRecorder.replay(new LayoutContext(), trace.toByteArray()));
+        }
+
+        LayoutRecorder cycle = new LayoutRecorder();
+        cycle.record(LayoutRecorder.OP_ITEM);
+        cycle.record(LayoutRecorder.OP_ITEM);
+        cycle.record(LayoutRecorder.OP_ITEM);
+        cycle.record(LayoutRecorder.OP_INSERT, 1, 2);
+        cycle.record(LayoutRecorder.OP_INSERT, 2, 1);
+        assertThrows(IllegalArgumentException.class, () -> LayoutRecorder.replay(new LayoutContext(), cycle.toByteArray()));
+    }
+
+    @Test
+    public void scrollQuery1() {
+        int root = ctx.item();
+        ctx.setSize(root, 100, 100);
+        ctx.setContain(root, LAY_COLUMN | LAY_START);
+
+        int header = ctx.item();
+        ctx.setSize(header, 100, 20);
+        ctx.insert(root, header);
+
+        int panel = ctx.item();
+        ctx.setSize(panel, 100, 50);
+        ctx.setContain(panel, LAY_COLUMN | LAY_START);
+        ctx.setBehave(panel, LAY_HFILL);
+        ctx.insert(root, panel);
+
+        int numItems = 1000;
+        int prev = ctx.item();
+        ctx.setSize(prev, 0, 10);
+        ctx.setBehave(prev, LAY_HFILL);
+        ctx.insert(panel, prev);
+        for (int i = 1; i < numItems; i++) {
+            int item = ctx.item();
+            ctx.setSize(item, 0, 10);
+            ctx.setBehave(item, LAY_HFILL);
+            ctx.append(prev, item);
+            prev = item;
+        }
+
+        ctx.setSubtreeBounds(true);
+        ctx.setScroll(panel, 0, 200);
+        ctx.runContext();
+
+        assertVec4Equals(ctx.getSubtreeBounds(root, new float[4]), 0, 0, 100, 100);
+        assertVec4Equals(ctx.getSubtreeBounds(panel, new float[4]), 0, 20, 100, 50);
+
+        int[] ids = new int[16];
+        float[] rects = new float[16 * 4];
+        float[] viewport = { 0, 0, 100, 100 };
+        int visible = ctx.queryScrolled(viewport, ids, rects);
+
+        // root, header, panel and the 7 children which touch the panel rect
+        assertEquals(10, visible);
+        assertEquals(panel, ids[2]);
+        int firstChild = ctx.firstChild(panel);
+        assertEquals(firstChild + 19, ids[3]);
+        assertArrayEquals(new float[] { 0, 10, 100, 10 }, Arrays.copyOfRange(rects, 3 * 4, 4 * 4));
+        assertEquals(firstChild + 25, ids[9]);
+
+        // scrolling doesn't require running layout again
+        ctx.setScroll(panel, 0, 5000);
+        visible = ctx.queryScrolled(viewport, ids, rects);
+        assertEquals(firstChild + 499, ids[3]);
+        assertEquals(firstChild + 505, ids[9]);
+        assertEquals(10, visible);
+        assertVec4Equals(ctx.getRect(firstChild + 499, new float[4]), 0, 5010, 100, 10);
+
+        // children are looked up again after the tree changes
+        int pushed = ctx.item();
+        ctx.setSize(pushed, 0, 100);
+        ctx.setBehave(pushed, LAY_HFILL);
+        ctx.push(panel, pushed);
+        ctx.runContext();
+        visible = ctx.queryScrolled(viewport, ids, rects);
+        assertEquals(10, visible);
+        assertEquals(firstChild + 489, ids[3]);
+        ctx.setScroll(panel, 0, 0);
+        visible = ctx.queryScrolled(viewport, ids, rects);
+        assertEquals(pushed, ids[3]);
+        assertEquals(4, visible);
+
+        ctx.setSubtreeBounds(false);
+        assertThrows(IllegalStateException.class, () -> ctx.queryScrolled(viewport, ids, rects));
+    }
+
+    @Test
+    public void parentLinks1() {
+        int root = ctx.item();
+        int childA = ctx.item();
+        int childB = ctx.item();
+        int childC = ctx.item();
+        int childD = ctx.item();
+        int inner = ctx.item();
+
+        ctx.insert(root, childB);
+        ctx.push(root, childA);
+        ctx.insert(root, childD);
+        ctx.append(childB, childC);
+        ctx.insert(childC, inner);
+
+        assertEquals(Layout.LAY_INVALID_ID, ctx.parent(root));
+        for (int child : new int[] { childA, childB, childC, childD }) {
+            assertEquals(root, ctx.parent(child));
+            assertEquals(1, ctx.depth(child));
+        }
+        assertEquals(childC, ctx.parent(inner));
+        assertEquals(2, ctx.depth(inner));
+        assertEquals(0, ctx.depth(root));
+
+        assertEquals(Layout.LAY_INVALID_ID, ctx.prevSibling(childA));
+        assertEquals(childA, ctx.prevSibling(childB));
+        assertEquals(childB, ctx.prevSibling(childC));
+        assertEquals(childC, ctx.prevSibling(childD));
+        assertEquals(Layout.LAY_INVALID_ID, ctx.prevSibling(inner));
+
+        // links should be consistent with forward iteration
+        int prev = Layout.LAY_INVALID_ID;
+        for (int child = ctx.firstChild(root); child != Layout.LAY_INVALID_ID; child = ctx.nextSibling(child)) {
+            assertEquals(prev, ctx.prevSibling(child));
+            prev = child;
+        }
+        assertEquals(childD, prev);
+    }
+
+    @Test
+    public void commandBufferScheduler1() throws InterruptedException {
+        int root = ctx.item();
+        ctx.setContain(root, LAY_ROW | LAY_START);
+        int numItems = 64;
+        int prev = ctx.item();
+        ctx.insert(root, prev);
+        for (int i = 1; i < numItems; i++) {
+            int item = ctx.item();
+            ctx.append(prev, item);
+            prev = item;
+        }
+
+        LayoutCommandBuffer buffer = new LayoutCommandBuffer(1 << 14);
+        LayoutScheduler scheduler = new LayoutScheduler(ctx, buffer);
+
+        // every thread owns a slice of items and overwrites their size several times
+        int numThreads = 4;
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            final int thread = t;
+            threads[t] = new Thread(() -> {
+                for (int pass = 1; pass <= 10; pass++) {
+                    for (int item = 1 + thread; item <= numItems; item += numThreads) {
+                        while (!buffer.setSize(item, pass, item)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // only the last write of every item should be applied
+        assertEquals(numItems, scheduler.runFrame());
+        assertVec4Equals(ctx.getRect(root, new float[4]), 0, 0, numItems * 10, numItems);
+        for (int item = 1; item <= numItems; item++) {
+            assertEquals(10, ctx.getSizeX(item));
+            assertEquals(item, ctx.getSizeY(item));
+        }
+
+        assertTrue(buffer.setMargins(1, 1, 2, 3, 4));
+        assertTrue(buffer.setGrow(1, 3));
+        // unknown items are ignored
+        assertTrue(buffer.setSize(numItems + 100, 1, 1));
+        assertEquals(2, scheduler.runFrame());
+        assertVec4Equals(ctx.getMarginsLTRB(1, new float[4]), 1, 2, 3, 4);
+        assertEquals(3, ctx.getGrow(1));
+        assertEquals(0, scheduler.runFrame());
+
+        LayoutCommandBuffer small = new LayoutCommandBuffer(2);
+        assertTrue(small.setSize(1, 1, 1));
+        assertTrue(small.setSize(1, 2, 2));
+        assertFalse(small.setSize(1, 3, 3));
+    }
+
+    @Test
+    public void batchExecutor1() {
+        List<LayoutContext> contexts = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            LayoutContext context = new LayoutContext();
+            int root = context.item();
+            context.setContain(root, LAY_COLUMN);
+            // contexts of very different sizes
+            for (int j = 0; j < 1 + i * i; j++) {
+                int child = context.item();
+                context.setSize(child, i, 1);
+                context.insert(root, child);
+            }
+            contexts.add(context);
+        }
+
+        new LayoutBatchExecutor().runAll(contexts).join();
+
+        for (int i = 0; i < contexts.size(); i++) {
+            assertVec4Equals(contexts.get(i).getRect(0, new float[4]), 0, 0, i, 1 + i * i);
+        }
+    }
+
+    @Test
+    public void drawList1() {
+        int root = ctx.item();
+        ctx.setSize(root, 100, 50);
+        ctx.setContain(root, LAY_ROW);
+
+        int left = ctx.item();
+        ctx.setBehave(left, LAY_FILL);
+        ctx.setContain(left, LAY_COLUMN);
+        ctx.insert(root, left);
+
+        int inner = ctx.item();
+        ctx.setSize(inner, 10, 10);
+        ctx.insert(left, inner);
+
+        int empty = ctx.item();
+        ctx.insert(left, empty);
+
+        int right = ctx.item();
+        ctx.setSize(right, 20, 0);
+        ctx.setBehave(right, LAY_VFILL);
+        ctx.insert(root, right);
+
+        ctx.runContext();
+
+        int format = Layout.LAY_DRAW_QUADS | Layout.LAY_DRAW_ITEM_ID | Layout.LAY_DRAW_SKIP_EMPTY;
+        assertEquals(20, Layout.layDrawItemBytes(format));
+        ByteBuffer buffer = ByteBuffer.allocateDirect(Layout.layDrawItemBytes(format) * ctx.itemsCount())
+                .order(ByteOrder.nativeOrder());
+        assertEquals(4, ctx.emitDrawList(root, buffer, format));
+        buffer.flip();
+
+        // paint order, empty item is skipped
+        int[] expectedIds = { root, left, inner, right };
+        for (int id : expectedIds) {
+            float[] rect = { buffer.getFloat(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat() };
+            assertArrayEquals(ctx.getRect(id, new float[4]), rect);
+            assertEquals(id, buffer.getInt());
+        }
+        assertFalse(buffer.hasRemaining());
+
+        format = Layout.LAY_DRAW_TRIANGLES;
+        assertEquals(48, Layout.layDrawItemBytes(format));
+        buffer = ByteBuffer.allocate(Layout.layDrawItemBytes(format) * ctx.itemsCount());
+        // emitting a subtree
+        assertEquals(1, ctx.emitDrawList(right, buffer, format));
+        buffer.flip();
+        float[] vertices = new float[12];
+        for (int i = 0; i < vertices.length; i++) {
+            vertices[i] = buffer.getFloat();
+        }
+        assertArrayEquals(new float[] { 80, 0, 100, 0, 100, 50, 80, 0, 100, 50, 80, 50 }, vertices);
+    }
+
+    @Test
+    public void drawListScrolled1() {
+        int root = ctx.item();
+        ctx.setSize(root, 100, 100);
+        ctx.setContain(root, LAY_COLUMN | LAY_START);
+        int list = ctx.item();
+        ctx.setSize(list, 100, 50);
+        ctx.setContain(list, LAY_COLUMN | LAY_START);
+        ctx.insert(root, list);
+        int[] rows = new int[5];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = ctx.item();
+            ctx.setSize(rows[i], 100, 20);
+            ctx.insert(list, rows[i]);
+        }
+        int footer = ctx.item();
+        ctx.setSize(footer, 100, 10);
+        ctx.insert(root, footer);
+        ctx.setScroll(list, 0, 30);
+        ctx.runContext();
+
+        int format = Layout.LAY_DRAW_ITEM_ID;
+        ByteBuffer buffer = ByteBuffer.allocate(Layout.layDrawItemBytes(format) * ctx.itemsCount());
+        assertEquals(ctx.itemsCount(), ctx.emitDrawList(root, buffer, format));
+        buffer.flip();
+        // rows are shifted by the scroll of the list, but neither the list nor the footer
+        int[] expectedIds = { root, list, rows[0], rows[1], rows[2], rows[3], rows[4], footer };
+        float[] expectedY = { 0, 0, -30, -10, 10, 30, 50, 50 };
+        for (int i = 0; i < expectedIds.length; i++) {
+            assertVec4Equals(new float[] { buffer.getFloat(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat() },
+                    0, expectedY[i], 100, i == 0 ? 100 : i == 1 ? 50 : i == 7 ? 10 : 20);
+            assertEquals(expectedIds[i], buffer.getInt());
+        }
+
+        // scroll of ancestors applies to a subtree too
+        buffer.clear();
+        assertEquals(1, ctx.emitDrawList(rows[2], buffer, Layout.LAY_DRAW_QUADS));
+        buffer.flip();
+        assertVec4Equals(new float[] { buffer.getFloat(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat() },
+                0, 10, 100, 20);
+    }
+
+    @Test
+    public void wrapLinesInputs1() {
+        int root = ctx.item();
+        ctx.setSize(root, 3, 10);
+        ctx.setContain(root, LAY_ROW | LAY_WRAP | LAY_START);
+        int first = ctx.item();
+        ctx.setSize(first, 1, 1);
+        ctx.setMargins(first, 0, 0, 1, 0);
+        ctx.insert(root, first);
+        int second = ctx.item();
+        ctx.setSize(second, 1, 1);
+        ctx.insert(root, second);
+        ctx.runContext();
+        assertVec4Equals(ctx.getRect(second, new float[4]), 2, 0, 1, 1);
+
+        // both changes cancel out in a polynomial hash of the inputs, lines still have to be broken again
+        ctx.setSize(first, Math.nextDown(1F), 1);
+        ctx.setMargins(first, 0, 0, Float.intBitsToFloat(Float.floatToIntBits(1F) + 31), 0);
+        ctx.runContext();
+        float[] rect = ctx.getRect(second, new float[4]);
+        assertEquals(0F, rect[0]);
+        assertTrue(rect[1] >= 1F);
+    }
+
+    @Test
+    public void queryOverflow1() {
+        // short rows are walked, long ones are indexed
+        for (int cells : new int[] { 10, 40 }) {
+            ctx = new LayoutContext();
+            ctx.setSubtreeBounds(true);
+            int root = ctx.item();
+            ctx.setSize(root, 400, 10);
+            ctx.setContain(root, LAY_ROW | LAY_START);
+            int overflowing = Layout.LAY_INVALID_ID;
+            for (int i = 0; i < cells; i++) {
+                int cell = ctx.item();
+                ctx.setSize(cell, 10, 10);
+                ctx.insert(root, cell);
+                if(i == cells / 2) {
+                    // wider than its cell and aligned to its right, reaches back into the viewport
+                    overflowing = ctx.item();
+                    ctx.setSize(overflowing, 300, 10);
+                    ctx.setBehave(overflowing, LAY_RIGHT);
+                    ctx.insert(cell, overflowing);
+                }
+            }
+            ctx.runContext();
+            assertTrue(ctx.getRectX(overflowing) < 50);
+
+            int[] visible = new int[64];
+            int count = ctx.queryVisible(new float[] { 0, 0, 50, 10 }, visible);
+            // root, 6 cells touching the viewport and the overflowing child
+            assertEquals(8, count);
+            assertEquals(overflowing, visible[count - 1]);
+        }
+    }
+
+    @Test
+    public void queryVisible1() {
+        int root = ctx.item();
+        ctx.setSize(root, 1000, 1000);
+        ctx.setContain(root, LAY_COLUMN);
+
+        int[][] cells = new int[100][100];
+        int[] rows = new int[100];
+        for (int i = 0; i < 100; i++) {
+            rows[i] = ctx.item();
+            ctx.setContain(rows[i], LAY_ROW);
+            ctx.setBehave(rows[i], LAY_HFILL);
+            ctx.insert(root, rows[i]);
+            for (int j = 0; j < 100; j++) {
+                cells[i][j] = ctx.item();
+                ctx.setSize(cells[i][j], 10, 10);
+                ctx.insert(rows[i], cells[i][j]);
+            }
+        }
+
+        // item which overflows its parent should still be found
+        int overflow = ctx.item();
+        ctx.setSize(overflow, 10, 10);
+        ctx.setMargins(overflow, 0, 500, 0, 0);
+        ctx.setBehave(overflow, LAY_LEFT | LAY_TOP);
+        ctx.insert(cells[0][0], overflow);
+
+        ctx.setSubtreeBounds(true);
+        ctx.runContext();
+
+        int[] visible = new int[16];
+        int count = ctx.queryVisible(new float[] { 95, 95, 10, 10 }, visible);
+        assertEquals(7, count);
+        assertArrayEquals(new int[] {
+                root,
+                rows[9], cells[9][9], cells[9][10],
+                rows[10], cells[10][9], cells[10][10]
+        }, Arrays.copyOf(visible, count));
+
+        count = ctx.queryVisible(new float[] { 2, 502, 2, 2 }, visible);
+        assertArrayEquals(new int[] { root, overflow, rows[50], cells[50][0] }, Arrays.copyOf(visible, count));
+
+        // viewport outside of the tree
+        assertEquals(0, ctx.queryVisible(new float[] { 2000, 0, 10, 10 }, visible));
+    }
+
+    @Test
+    public void wrapRelayout1() {
+        int root = ctx.item();
+        ctx.setSize(root, 100, 0);
+        ctx.setContain(root, LAY_ROW | LAY_WRAP | LAY_START);
+
+        int[] children = new int[10];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = ctx.item();
+            ctx.setSize(children[i], 30, 10);
+            ctx.insert(root, children[i]);
+        }
+        // manual break should survive relayout
+        ctx.setBehave(children[7], LAY_BREAK);
+
+        ctx.runContext();
+        // 3 items per line, manual break before the 8th
+        assertVec4Equals(ctx.getRect(root, new float[4]), 0, 0, 100, 40);
+        assertVec4Equals(ctx.getRect(children[3], new float[4]), 0, 10, 30, 10);
+        assertVec4Equals(ctx.getRect(children[6], new float[4]), 0, 20, 30, 10);
+        assertVec4Equals(ctx.getRect(children[7], new float[4]), 0, 30, 30, 10);
+        // automatic breaks should not be written into item flags
+        assertEquals(0, ctx.getFlags(children[3]) & LAY_BREAK);
+
+        // same inputs, lines are reused
+        ctx.runContext();
+        assertVec4Equals(ctx.getRect(root, new float[4]), 0, 0, 100, 40);
+        assertVec4Equals(ctx.getRect(children[6], new float[4]), 0, 20, 30, 10);
+
+        // wider container, without clearing breaks
+        ctx.setSize(root, 200, 0);
+        ctx.runContext();
+        assertVec4Equals(ctx.getRect(root, new float[4]), 0, 0, 200, 30);
+        assertVec4Equals(ctx.getRect(children[5], new float[4]), 150, 0, 30, 10);
+        assertVec4Equals(ctx.getRect(children[6], new float[4]), 0, 10, 30, 10);
+        assertVec4Equals(ctx.getRect(children[7], new float[4]), 0, 20, 30, 10);
+
+        // one of children changes its size
+        ctx.setSize(children[0], 150, 10);
+        ctx.runContext();
+        assertVec4Equals(ctx.getRect(root, new float[4]), 0, 0, 200, 30);
+        assertVec4Equals(ctx.getRect(children[2], new float[4]), 0, 10, 30, 10);
+        assertVec4Equals(ctx.getRect(children[7], new float[4]), 0, 20, 30, 10);
+    }
+
+    @Test
+    public void concurrentRead1() throws InterruptedException {
+        int root = ctx.item();
+        ctx.setContain(root, LAY_ROW);
+        int child = ctx.item();
+        ctx.setBehave(child, LAY_FILL);
+        ctx.insert(root, child);
+
+        ctx.setSize(root, 1, 1);
+        ctx.runContext();
+
+        long stamp = ctx.readStamp();
+        assertNotEquals(0, stamp);
+        assertTrue(ctx.validateRead(stamp));
+        ctx.runContext();
+        assertFalse(ctx.validateRead(stamp));
+
+        // the layout thread resizes root to a square of growing size,
+        // reader should never see a rect from an unfinished run
+        Thread writer = new Thread(() -> {
+            for (int i = 1; i <= 20000; i++) {
+                ctx.setSize(root, i, i);
+                ctx.runContext();
+            }
+        });
+        writer.start();
+        float[] rect = new float[4];
+        while (writer.isAlive()) {
+            if(ctx.tryGetRect(child, rect)) {
+                assertEquals(rect[2], rect[3]);
+            }
+        }
+        writer.join();
+        assertTrue(ctx.tryGetRect(child, rect));
+        assertVec4Equals(rect, 0, 0, 20000, 20000);
+    }
+
+    @Test
+    public void concurrentReadMeasure1() throws InterruptedException {
+        int root = ctx.item();
+        ctx.setContain(root, LAY_ROW);
+        int child = ctx.item();
+        ctx.setBehave(child, LAY_FILL);
+        ctx.insert(root, child);
+        ctx.setSize(root, 1, 1);
+        ctx.runContext();
+
+        // measuring swaps in scratch rects, where the child has no size,
+        // reader should only ever see rects of finished runs
+        Thread writer = new Thread(() -> {
+            float[] size = new float[2];
+            for (int i = 1; i <= 20000; i++) {
+                ctx.setSize(root, i, i);
+                ctx.runContext();
+                ctx.measure(root, 0, 0, size);
+            }
+        });
+        writer.start();
+        float[] rect = new float[4];
+        while (writer.isAlive()) {
+            if(ctx.tryGetRect(child, rect)) {
+                assertEquals(rect[2], rect[3]);
+                assertTrue(rect[2] >= 1);
+            }
+        }
+        writer.join();
+        assertTrue(ctx.tryGetRect(child, rect));
+        assertVec4Equals(rect, 0, 0, 20000, 20000);
+    }
+
+    @Test
+    public void snapWrappedColumn1() {
+        int root = ctx.item();
+        ctx.setSize(root, 100.3F, 50.3F);
+        ctx.setContain(root, LAY_COLUMN | LAY_WRAP | LAY_START);
+        for (int i = 0; i < 7; i++) {
+            int child = ctx.item();
+            ctx.setSize(child, 30.4F, 12.3F);
+            ctx.insert(root, child);
+        }
+        int[] snapped = new int[ctx.itemsCount() * 4];
+        ctx.setPixelSnapping(1.5F, snapped);
+        ctx.runContext();
+
+        // children moved into the second column are snapped at their final position
+        assertEquals(30.4F, ctx.getRectX(5));
+        for (int i = 0; i < ctx.itemsCount(); i++) {
+            float[] rect = ctx.getRect(i, new float[4]);
+            int x0 = (int) Math.floor(rect[0] * 1.5F + 0.5F);
+            int y0 = (int) Math.floor(rect[1] * 1.5F + 0.5F);
+            int x1 = (int) Math.floor((rect[0] + rect[2]) * 1.5F + 0.5F);
+            int y1 = (int) Math.floor((rect[1] + rect[3]) * 1.5F + 0.5F);
+            assertArrayEquals(new int[] { x0, y0, x1 - x0, y1 - y0 }, ctx.getSnappedRect(i, new int[4]));
+        }
+        assertArrayEquals(new int[] { 46, 0, 45, 18 }, ctx.getSnappedRect(5, new int[4]));
+    }
+
+    @Test
+    public void fork1() {
+        int root = ctx.item();
+        ctx.setSize(root, 100, 0);
+        ctx.setContain(root, LAY_ROW | LAY_WRAP | LAY_START);
+        int[] children = new int[600];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = ctx.item();
+            ctx.setSize(children[i], 50, 10);
+            ctx.insert(root, children[i]);
+        }
+        ctx.runContext();
+        assertVec4Equals(ctx.getRect(root, new float[4]), 0, 0, 100, 3000);
+
+        // what if the container was wider
+        LayoutContext fork = ctx.fork();
+        assertVec4Equals(fork.getRect(root, new float[4]), 0, 0, 100, 3000);
+        fork.setSize(root, 200, 0);
+        fork.runContext();
+        assertVec4Equals(fork.getRect(root, new float[4]), 0, 0, 200, 1500);
+        assertVec4Equals(fork.getRect(children[599], new float[4]), 150, 1490, 50, 10);
+        assertVec4Equals(ctx.getRect(root, new float[4]), 0, 0, 100, 3000);
+        assertVec4Equals(ctx.getRect(children[599], new float[4]), 50, 2990, 50, 10);
+        assertEquals(100, ctx.getSizeX(root));
+
+        // new items in the fork don't show up in the original
+        int extra = fork.item();
+        fork.setSize(extra, 100, 10);
+        fork.insert(root, extra);
+        fork.runContext();
+        assertEquals(children.length + 2, fork.itemsCount());
+        assertEquals(children.length + 1, ctx.itemsCount());
+        assertEquals(children[599], ctx.lastChild(root));
+        assertEquals(extra, fork.lastChild(root));
+
+        // changes in the original don't show up in the fork either
+        ctx.setSize(children[0], 100, 10);
+        ctx.runContext();
+        assertVec4Equals(ctx.getRect(children[1], new float[4]), 0, 10, 50, 10);
+        assertVec4Equals(fork.getRect(children[1], new float[4]), 50, 0, 50, 10);
+        assertEquals(50, fork.getSizeX(children[0]));
+    }
+
+    @Test
+    public void measure1() {
+        int root = ctx.item();
+        ctx.setSize(root, 500, 500);
+
+        int panel = ctx.item();
+        ctx.setContain(panel, LAY_ROW | LAY_WRAP | LAY_START);
+        ctx.setBehave(panel, LAY_HFILL | LAY_TOP);
+        ctx.setMargins(panel, 5, 0, 5, 0);
+        ctx.insert(root, panel);
+        for (int i = 0; i < 10; i++) {
+            int child = ctx.item();
+            ctx.setSize(child, 30, 10);
+            ctx.insert(panel, child);
+        }
+
+        ctx.runContext();
+        float[] panelRect = ctx.getRect(panel, new float[4]);
+        float[] childRect = ctx.getRect(ctx.lastChild(panel), new float[4]);
+        assertVec4Equals(panelRect, 5, 0, 490, 10);
+
+        // wraps into 4 lines of 3 items within 100 - 10 of available width
+        assertArrayEquals(new float[] { 90, 40 }, ctx.measure(panel, 100, 0, new float[2]));
+        // intrinsic size, everything fits into a single line
+        assertArrayEquals(new float[] { 300, 10 }, ctx.measure(panel, 0, 0, new float[2]));
+
+        // results of the last run are intact
+        assertArrayEquals(panelRect, ctx.getRect(panel, new float[4]));
+        assertArrayEquals(childRect, ctx.getRect(ctx.lastChild(panel), new float[4]));
+
+        // and running again gives the same results
+        ctx.runContext();
+        assertArrayEquals(panelRect, ctx.getRect(panel, new float[4]));
+        assertArrayEquals(childRect, ctx.getRect(ctx.lastChild(panel), new float[4]));
+    }
+
+    @Test
+    public void compiled1() {
+        buildHud(ctx);
+        LayoutProgram program = ctx.compile();
+        // wrapped container is compiled, but not its children
+        assertEquals(ctx.itemsCount() - 7, program.length());
+
+        // the same tree which is run the usual way
+        LayoutContext expected = new LayoutContext();
+        buildHud(expected);
+
+        ctx.setSubtreeBounds(true);
+        expected.setSubtreeBounds(true);
+        int[] snapped = new int[ctx.itemsCount() * 4];
+        int[] expectedSnapped = new int[ctx.itemsCount() * 4];
+        ctx.setPixelSnapping(1.5F, snapped);
+        expected.setPixelSnapping(1.5F, expectedSnapped);
+
+        float[][] sizes = { { 300, 200 }, { 123, 77 }, { 40, 0 }, { 0, 0 }, { 300, 200 } };
+        for (float[] size : sizes) {
+            ctx.runCompiled(program, size[0], size[1]);
+            expected.setSize(0, size[0], size[1]);
+            expected.runContext();
+            for (int i = 0; i < ctx.itemsCount(); i++) {
+                assertArrayEquals(expected.getRect(i, new float[4]), ctx.getRect(i, new float[4]));
+                assertArrayEquals(expected.getSubtreeBounds(i, new float[4]), ctx.getSubtreeBounds(i, new float[4]));
+            }
+            assertArrayEquals(expectedSnapped, snapped);
+        }
+        // size of the root item itself isn't changed
+        assertEquals(300, ctx.getSizeX(0));
+
+        // the program can be run on forks
+        LayoutContext fork = ctx.fork();
+        fork.runCompiled(program, 123, 77);
+        ctx.runCompiled(program, 123, 77);
+        for (int i = 0; i < ctx.itemsCount(); i++) {
+            assertArrayEquals(ctx.getRect(i, new float[4]), fork.getRect(i, new float[4]));
+        }
+    }
+
+    @Test
+    public void compiledWrappedRoot1() {
+        LayoutContext expected = new LayoutContext();
+        for (LayoutContext c : new LayoutContext[] { ctx, expected }) {
+            int root = c.item();
+            c.setSize(root, 100, 0);
+            c.setContain(root, LAY_ROW | LAY_WRAP | LAY_START);
+            for (int i = 0; i < 8; i++) {
+                int child = c.item();
+                c.setSize(child, 40, 10);
+                c.insert(root, child);
+            }
+        }
+        LayoutProgram program = ctx.compile();
+        assertEquals(1, program.length());
+
+        float[][] sizes = { { 200, 0 }, { 100, 0 }, { 50, 70 } };
+        for (float[] size : sizes) {
+            ctx.runCompiled(program, size[0], size[1]);
+            expected.setSize(0, size[0], size[1]);
+            expected.runContext();
+            for (int i = 0; i < ctx.itemsCount(); i++) {
+                assertArrayEquals(expected.getRect(i, new float[4]), ctx.getRect(i, new float[4]));
+            }
+        }
+        assertVec4Equals(ctx.getRect(0, new float[4]), 0, 0, 50, 70);
+        // size of the root item itself isn't changed
+        assertEquals(100, ctx.getSizeX(0));
+        assertEquals(0, ctx.getSizeY(0));
+    }
+
+    @Test
+    public void compiledWide1() {
+        LayoutContext expected = new LayoutContext();
+        buildWideRows(ctx);
+        buildWideRows(expected);
+        LayoutProgram program = ctx.compile();
+
+        // with room to spare, justified, and squeezed
+        float[][] sizes = { { 4000, 900 }, { 1000, 300 }, { 200, 50 } };
+        for (float[] size : sizes) {
+            ctx.runCompiled(program, size[0], size[1]);
+            expected.setSize(0, size[0], size[1]);
+            expected.runContext();
+            for (int i = 0; i < ctx.itemsCount(); i++) {
+                assertArrayEquals(expected.getRect(i, new float[4]), ctx.getRect(i, new float[4]));
+            }
+        }
+    }
+
+    private static void buildWideRows(LayoutContext ctx) {
+        int root = ctx.item();
+        ctx.setContain(root, LAY_COLUMN);
+        int[] contains = { LAY_ROW, LAY_ROW | LAY_JUSTIFY, LAY_COLUMN | LAY_END };
+        for (int contain : contains) {
+            int run = ctx.item();
+            ctx.setContain(run, contain);
+            ctx.setBehave(run, LAY_FILL);
+            ctx.setGap(run, 1, 0);
+            ctx.insert(root, run);
+            for (int i = 0; i < LayoutProgram.WIDE_RUN * 3; i++) {
+                int child = ctx.item();
+                ctx.setMargins(child, i % 3, 1, i % 2, 0);
+                if(i % 5 == 0) {
+                    ctx.setBehave(child, LAY_HFILL | LAY_VCENTER);
+                    ctx.setGrow(child, 1 + i % 3);
+                } else if(i % 5 == 1) {
+                    ctx.setBehave(child, LAY_BOTTOM);
+                    ctx.setSize(child, 12, 7);
+                } else if(i % 5 == 2) {
+                    ctx.setBehave(child, LAY_FILL);
+                } else {
+                    ctx.setSize(child, 0, 9);
+                    int grandChild = ctx.item();
+                    ctx.setSize(grandChild, 10 + i % 7, 0);
+                    ctx.insert(child, grandChild);
+                }
+                ctx.insert(run, child);
+            }
+        }
+    }
+
+    @Test
+    public void resultCache1() throws IOException {
+        Path directory = Files.createTempDirectory("layout-cache");
+        try {
+            LayoutResultCache cache = new LayoutResultCache(directory, 1 << 20);
+            buildHud(ctx);
+            assertFalse(ctx.runCached(cache));
+            assertEquals(1, cache.size());
+
+            // same tree on the next launch
+            LayoutContext expected = new LayoutContext();
+            buildHud(expected);
+            expected.setSubtreeBounds(true);
+            int[] expectedSnapped = new int[expected.itemsCount() * 4];
+            expected.setPixelSnapping(1.5F, expectedSnapped);
+            expected.runContext();
+
+            ctx = new LayoutContext();
+            buildHud(ctx);
+            ctx.setSubtreeBounds(true);
+            int[] snapped = new int[ctx.itemsCount() * 4];
+            ctx.setPixelSnapping(1.5F, snapped);
+            assertTrue(ctx.runCached(new LayoutResultCache(directory, 1 << 20)));
+            for (int i = 0; i < ctx.itemsCount(); i++) {
+                assertArrayEquals(expected.getRect(i, new float[4]), ctx.getRect(i, new float[4]));
+                assertArrayEquals(expected.getSubtreeBounds(i, new float[4]), ctx.getSubtreeBounds(i, new float[4]));
+            }
+            assertArrayEquals(expectedSnapped, snapped);
+
+            // changed input is a miss
+            ctx.setSize(0, 640, 480);
+            assertFalse(ctx.runCached(cache));
+            expected.setSize(0, 640, 480);
+            expected.runContext();
+            for (int i = 0; i < ctx.itemsCount(); i++) {
+                assertArrayEquals(expected.getRect(i, new float[4]), ctx.getRect(i, new float[4]));
+            }
+            assertEquals(2, cache.size());
+
+            // a hit discards lines broken for another tree, the next run breaks them again
+            assertTrue(ctx.analyze(false).wrappedLines() > 0);
+            ctx.setSize(0, 300, 200);
+            assertTrue(ctx.runCached(cache));
+            assertEquals(0, ctx.analyze(false).wrappedLines());
+            ctx.setSize(0, 640, 480);
+            ctx.runContext();
+            assertTrue(ctx.analyze(false).wrappedLines() > 0);
+            for (int i = 0; i < ctx.itemsCount(); i++) {
+                assertArrayEquals(expected.getRect(i, new float[4]), ctx.getRect(i, new float[4]));
+            }
+
+            long entryBytes = cache.sizeBytes() / 2;
+            cache.clear();
+            assertEquals(0, cache.size());
+            assertEquals(0, cache.sizeBytes());
+
+            // bound fits a single entry, least recently used one is evicted
+            LayoutResultCache small = new LayoutResultCache(directory, entryBytes);
+            assertFalse(ctx.runCached(small));
+            ctx.setSize(0, 300, 200);
+            assertFalse(ctx.runCached(small));
+            assertTrue(ctx.runCached(small));
+            assertEquals(1, small.size());
+            assertEquals(entryBytes, small.sizeBytes());
+            ctx.setSize(0, 640, 480);
+            assertFalse(ctx.runCached(small));
+        } finally {
+            try (java.util.stream.Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void analyze1() {
+        int root = ctx.item();
+        ctx.setContain(root, LAY_COLUMN);
+        int row = ctx.item();
+        ctx.setContain(row, LAY_ROW);
+        ctx.insert(root, row);
+        for (int i = 0; i < 3; i++) {
+            int child = ctx.item();
+            ctx.setSize(child, 10, 10);
+            ctx.insert(row, child);
+        }
+        int wrapped = ctx.item();
+        ctx.setSize(wrapped, 50, 0);
+        ctx.setContain(wrapped, LAY_ROW | LAY_WRAP);
+        ctx.insert(root, wrapped);
+        for (int i = 0; i < 4; i++) {
+            int child = ctx.item();
+            ctx.setSize(child, 20, 10);
+            ctx.insert(wrapped, child);
+        }
+        int box = ctx.item();
+        ctx.insert(root, box);
+        ctx.insert(box, ctx.item());
+
+        LayoutReport report = ctx.analyze(true);
+        assertEquals(12, report.items());
+        assertEquals(2, report.maxDepth());
+        assertEquals(19.0 / 12, report.averageDepth(), 1e-9);
+        assertEquals(4, report.maxFanOut());
+        assertEquals(8, report.fanOutHistogram(0));
+        assertEquals(1, report.fanOutHistogram(1));
+        assertEquals(2, report.fanOutHistogram(2));
+        assertEquals(1, report.fanOutHistogram(3));
+        assertEquals(1, report.containers(LAY_ROW));
+        assertEquals(1, report.containers(LAY_COLUMN));
+        assertEquals(1, report.containers(LAY_ROW | LAY_WRAP));
+        assertEquals(0, report.containers(LAY_COLUMN | LAY_WRAP));
+        assertEquals(1, report.containers(LAY_LAYOUT));
+        assertEquals(8, report.leaves());
+        assertEquals(2, report.wrappedLines());
+
+        // profiled run is a regular run
+        assertTrue(report.totalNanos() >= 0);
+        assertEquals(LayoutReport.HOT_SUBTREES, report.hotSubtreesCount());
+        for (int i = 0; i < report.hotSubtreesCount(); i++) {
+            assertTrue(report.hotSubtreeSelfNanos(i) <= report.hotSubtreeNanos(i));
+            assertTrue(report.hotSubtreeNanos(i) <= report.totalNanos());
+            if(i > 0) assertTrue(report.hotSubtreeSelfNanos(i) <= report.hotSubtreeSelfNanos(i - 1));
+        }
+        float[][] rects = new float[ctx.itemsCount()][];
+        for (int i = 0; i < ctx.itemsCount(); i++) {
+            rects[i] = ctx.getRect(i, new float[4]);
+        }
+        ctx.runContext();
+        for (int i = 0; i < ctx.itemsCount(); i++) {
+            assertArrayEquals(ctx.getRect(i, new float[4]), rects[i]);
+        }
+
+        assertEquals(-1, ctx.analyze(false).totalNanos());
+        String json = report.toJson();
+        assertTrue(json.startsWith("{\"items\":12,\"maxDepth\":2,"));
+        assertTrue(json.contains("\"fanOutHistogram\":[8,1,2,1]"));
+        assertTrue(json.contains("\"hotSubtrees\":[{\"item\":"));
+
+        // subtrees are ranked by self time, not by inclusive time which always favors ancestors
+        long[] nanos = new long[ctx.itemsCount()];
+        Arrays.fill(nanos, 1);
+        for (int child : new int[] { 6, 7, 8, 9 }) nanos[child] = 2;
+        nanos[row] = 53;
+        nanos[wrapped] = 13;
+        nanos[box + 1] = 30;
+        nanos[box] = 31;
+        nanos[root] = 100;
+        report = LayoutReport.build(ctx, nanos);
+        assertEquals(100, report.totalNanos());
+        int[] hottest = { row, box + 1, wrapped, root, 6 };
+        long[] selfNanos = { 50, 30, 5, 3, 2 };
+        long[] inclusiveNanos = { 53, 30, 13, 100, 2 };
+        for (int i = 0; i < hottest.length; i++) {
+            assertEquals(hottest[i], report.hotSubtree(i));
+            assertEquals(selfNanos[i], report.hotSubtreeSelfNanos(i));
+            assertEquals(inclusiveNanos[i], report.hotSubtreeNanos(i));
+        }
+        assertTrue(report.toJson().contains("{\"item\":1,\"depth\":1,\"items\":4,\"nanos\":53,\"selfNanos\":50}"));
+    }
+
+    @Test
+    public void rewind1() {
+        LayoutContext expected = new LayoutContext();
+        ctx.setSizeCache(true);
+        int[] chrome = buildChrome(ctx);
+        buildChrome(expected);
+        int mark = ctx.mark();
+        assertEquals(chrome.length, mark);
+
+        // first frame links dynamic items in between static ones, and a static item into a dynamic one
+        int toolbar = chrome[1];
+        int spacer = ctx.item();
+        ctx.setSize(spacer, 40, 5);
+        ctx.append(ctx.firstChild(toolbar), spacer);
+        int popup = ctx.item();
+        ctx.setSize(popup, 80, 80);
+        ctx.insert(chrome[2], popup);
+        ctx.insert(popup, chrome[3]);
+        for (int i = 0; i < 5; i++) {
+            int line = ctx.item();
+            ctx.setSize(line, 0, 12);
+            ctx.setBehave(line, LAY_HFILL);
+            ctx.push(chrome[2], line);
+        }
+        ctx.runContext();
+
+        ctx.rewind(mark);
+        assertEquals(mark, ctx.itemsCount());
+        assertEquals(Layout.LAY_INVALID_ID, ctx.parent(chrome[3]));
+        assertEquals(chrome[5], ctx.nextSibling(chrome[4]));
+        assertEquals(chrome[5], ctx.lastChild(toolbar));
+
+        // loose item appended after a dynamic item outside of the tree, and followed by another one
+        int head = ctx.item();
+        ctx.append(head, chrome[3]);
+        int tail = ctx.item();
+        ctx.append(chrome[3], tail);
+        ctx.rewind(mark);
+        assertEquals(Layout.LAY_INVALID_ID, ctx.parent(chrome[3]));
+        assertEquals(Layout.LAY_INVALID_ID, ctx.prevSibling(chrome[3]));
+        assertEquals(Layout.LAY_INVALID_ID, ctx.nextSibling(chrome[3]));
+
+        // second frame, built the same way in a fresh context
+        for (LayoutContext c : new LayoutContext[] { ctx, expected }) {
+            c.insert(chrome[2], chrome[3]);
+            for (int i = 0; i < 3; i++) {
+                int line = c.item();
+                c.setSize(line, 0, 20);
+                c.setBehave(line, LAY_HFILL);
+                c.insert(chrome[2], line);
+            }
+            c.runContext();
+        }
+        assertEquals(expected.itemsCount(), ctx.itemsCount());
+        for (int i = 0; i < ctx.itemsCount(); i++) {
+            assertArrayEquals(expected.getRect(i, new float[4]), ctx.getRect(i, new float[4]));
+        }
+
+        // rewinding to the current count changes nothing
+        ctx.rewind(ctx.mark());
+        assertEquals(expected.itemsCount(), ctx.itemsCount());
+    }
+
+    /**
+     * Returns root, toolbar, content and a loose item which isn't inserted anywhere
+     */
+    private static int[] buildChrome(LayoutContext ctx) {
+        int root = ctx.item();
+        ctx.setSize(root, 400, 300);
+        ctx.setContain(root, LAY_COLUMN);
+        int toolbar = ctx.item();
+        ctx.setContain(toolbar, LAY_ROW | LAY_START);
+        ctx.setBehave(toolbar, LAY_HFILL);
+        ctx.insert(root, toolbar);
+        int content = ctx.item();
+        ctx.setContain(content, LAY_COLUMN | LAY_START);
+        ctx.setBehave(content, LAY_FILL);
+        ctx.insert(root, content);
+        int loose = ctx.item();
+        ctx.setSize(loose, 30, 30);
+        for (int i = 0; i < 2; i++) {
+            int button = ctx.item();
+            ctx.setSize(button, 24, 24);
+            ctx.insert(toolbar, button);
+        }
+        return new int[] { root, toolbar, content, loose, ctx.itemsCount() - 2, ctx.itemsCount() - 1 };
+    }
+
+    @Test
+    public void breakpoints1() {
+        float[] widths = { 320, 768, 1280, 1920 };
+        float[] heights = { 480, 0, 720, 1080 };
+
+        // with and without wrapped rows
+        for (int wrap = 0; wrap < 2; wrap++) {
+            ctx = new LayoutContext();
+            buildHud(ctx);
+            if(wrap == 0) {
+                ctx.setContain(ctx.lastChild(ctx.lastChild(0)), LAY_ROW | LAY_START);
+            }
+            float[][] dst = new float[widths.length][ctx.itemsCount() * 4];
+            ctx.runBreakpoints(widths, heights, dst);
+            assertEquals(300, ctx.getSizeX(0));
+            assertEquals(200, ctx.getSizeY(0));
+
+            LayoutContext expected = new LayoutContext();
+            buildHud(expected);
+            if(wrap == 0) {
+                expected.setContain(expected.lastChild(expected.lastChild(0)), LAY_ROW | LAY_START);
+            }
+            for (int k = 0; k < widths.length; k++) {
+                expected.setSize(0, widths[k], heights[k]);
+                expected.runContext();
+                for (int i = 0; i < ctx.itemsCount(); i++) {
+                    assertArrayEquals(expected.getRect(i, new float[4]), Arrays.copyOfRange(dst[k], i * 4, i * 4 + 4));
+                }
+            }
+            // context is left with results of the last size
+            for (int i = 0; i < ctx.itemsCount(); i++) {
+                assertArrayEquals(expected.getRect(i, new float[4]), ctx.getRect(i, new float[4]));
+            }
+        }
+    }
+
+    @Test
+    public void sizeCache1() {
+        buildHud(ctx);
+        ctx.setSizeCache(true);
+        LayoutContext expected = new LayoutContext();
+        buildHud(expected);
+        int toolbar = ctx.firstChild(0);
+        int button = ctx.firstChild(toolbar);
+        int body = ctx.nextSibling(toolbar);
+        int tiles = ctx.lastChild(body);
+        int both = Layout.SIZE_CACHED_X | Layout.SIZE_CACHED_Y;
+
+        ctx.runContext();
+        expected.runContext();
+        assertEquals(both, ctx.sizeCacheState[toolbar] & both);
+        // wrapped rows and their ancestors always calculate their height
+        assertEquals(Layout.SIZE_CACHED_X, ctx.sizeCacheState[tiles] & both);
+        assertEquals(Layout.SIZE_CACHED_X, ctx.sizeCacheState[body] & both);
+        assertEquals(Layout.SIZE_CACHED_X, ctx.sizeCacheState[0] & both);
+
+        // resizing the root only invalidates the root
+        ctx.setSize(0, 500, 300);
+        assertEquals(0, ctx.sizeCacheState[0] & both);
+        assertEquals(both, ctx.sizeCacheState[toolbar] & both);
+        ctx.runContext();
+        expected.setSize(0, 500, 300);
+        expected.runContext();
+        for (int i = 0; i < ctx.itemsCount(); i++) {
+            assertArrayEquals(expected.getRect(i, new float[4]), ctx.getRect(i, new float[4]));
+        }
+
+        // changing an item invalidates its ancestors
+        ctx.setSize(button, 40, 30);
+        assertEquals(0, ctx.sizeCacheState[button] & both);
+        assertEquals(0, ctx.sizeCacheState[toolbar] & both);
+        assertEquals(0, ctx.sizeCacheState[0] & both);
+        assertEquals(Layout.SIZE_CACHED_X, ctx.sizeCacheState[body] & both);
+        ctx.runContext();
+        expected.setSize(button, 40, 30);
+        expected.runContext();
+        for (int i = 0; i < ctx.itemsCount(); i++) {
+            assertArrayEquals(expected.getRect(i, new float[4]), ctx.getRect(i, new float[4]));
+        }
+
+        // so does inserting a new item
+        int extra = ctx.item();
+        ctx.setSize(extra, 10, 50);
+        ctx.insert(toolbar, extra);
+        assertEquals(0, ctx.sizeCacheState[toolbar] & both);
+        ctx.runContext();
+        extra = expected.item();
+        expected.setSize(extra, 10, 50);
+        expected.insert(toolbar, extra);
+        expected.runContext();
+        for (int i = 0; i < ctx.itemsCount(); i++) {
+            assertArrayEquals(expected.getRect(i, new float[4]), ctx.getRect(i, new float[4]));
+        }
+    }
+
+    @Test
+    public void userData1() {
+        int root = ctx.item();
+        ctx.setSize(root, 100, 100);
+        ctx.setContain(root, LAY_COLUMN | LAY_START);
+        int[] rows = new int[20];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = ctx.item();
+            ctx.setSize(rows[i], 100, 10);
+            ctx.insert(root, rows[i]);
+        }
+        assertEquals(0, ctx.getUserInt(rows[0]));
+        assertEquals(0L, ctx.getUserLong(rows[0]));
+
+        int[] widgets = new int[rows.length];
+        for (int i = 0; i < widgets.length; i++) {
+            widgets[i] = 1000 + i;
+        }
+        ctx.setUserInts(rows[0], widgets, 0, widgets.length);
+        ctx.setUserLong(rows[3], 0x1234_5678_9ABC_DEF0L);
+        assertEquals(1003, ctx.getUserInt(rows[3]));
+        assertEquals(0x1234_5678_9ABC_DEF0L, ctx.getUserLong(rows[3]));
+
+        // map visible items to widgets
+        ctx.setSubtreeBounds(true);
+        ctx.runContext();
+        int[] visible = new int[rows.length + 1];
+        int count = ctx.queryVisible(new float[] { 0, 15, 100, 20 }, visible);
+        assertEquals(4, count); // root and rows 1-3
+        assertArrayEquals(new int[] { 0, 1001, 1002, 1003 }, ctx.gatherUserInts(visible, count, new int[count]));
+        assertArrayEquals(new long[] { 0, 0, 0, 0x1234_5678_9ABC_DEF0L }, ctx.gatherUserLongs(visible, count, new long[count]));
+
+        // forks have their own copy
+        LayoutContext fork = ctx.fork();
+        fork.setUserInt(rows[3], 7);
+        assertEquals(7, fork.getUserInt(rows[3]));
+        assertEquals(1003, ctx.getUserInt(rows[3]));
+        assertEquals(0x1234_5678_9ABC_DEF0L, fork.getUserLong(rows[3]));
+
+        // and items created again after reset start with 0
+        ctx.resetContext();
+        for (int i = 0; i <= rows.length; i++) {
+            int item = ctx.item();
+            assertEquals(0, ctx.getUserInt(item));
+            assertEquals(0L, ctx.getUserLong(item));
+        }
+        assertEquals(7, fork.getUserInt(rows[3]));
+    }
+
+    @Test
+    public void levelPlan1() {
+        buildWide(ctx);
+        LayoutContext expected = new LayoutContext();
+        buildWide(expected);
+        ctx.setSubtreeBounds(true);
+        expected.setSubtreeBounds(true);
+        int[] snapped = new int[ctx.itemsCount() * 4];
+        int[] expectedSnapped = new int[ctx.itemsCount() * 4];
+        ctx.setPixelSnapping(1.25F, snapped);
+        expected.setPixelSnapping(1.25F, expectedSnapped);
+
+        LayoutLevelPlan plan = ctx.buildLevelPlan();
+        assertEquals(3, plan.levelCount());
+        assertEquals(1, plan.levelSize(0));
+        assertEquals(3, plan.levelSize(1));
+        assertEquals(3 * 6000, plan.levelSize(2));
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            float[][] sizes = { { 800, 600 }, { 1920, 1080 }, { 320, 0 } };
+            for (float[] size : sizes) {
+                ctx.setSize(0, size[0], size[1]);
+                ctx.runLevelPlan(plan, pool, 4);
+                expected.setSize(0, size[0], size[1]);
+                expected.runContext();
+                for (int i = 0; i < ctx.itemsCount(); i++) {
+                    assertArrayEquals(expected.getRect(i, new float[4]), ctx.getRect(i, new float[4]));
+                    assertArrayEquals(expected.getSubtreeBounds(i, new float[4]), ctx.getSubtreeBounds(i, new float[4]));
+                }
+                assertArrayEquals(expectedSnapped, snapped);
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        // plan can't be used after the tree has changed
+        ctx.insert(ctx.firstChild(0), ctx.item());
+        assertTrue(plan.isOutdated());
+        assertThrows(IllegalStateException.class, () -> ctx.runLevelPlan(plan));
+        // or with another context
+        LayoutLevelPlan otherPlan = expected.buildLevelPlan();
+        assertThrows(IllegalStateException.class, () -> ctx.runLevelPlan(otherPlan));
+    }
+
+    @Test
+    public void traversal1() {
+        buildHud(ctx);
+        LayoutContext expected = new LayoutContext();
+        buildHud(expected);
+
+        // tree is run for the first time, order isn't stored yet
+        ctx.runContext();
+        assertNull(ctx.traversal);
+
+        float[][] sizes = { { 300, 200 }, { 500, 100 }, { 120, 0 } };
+        for (float[] size : sizes) {
+            ctx.setSize(0, size[0], size[1]);
+            ctx.runContext();
+            assertNotNull(ctx.traversal);
+            assertEquals(ctx.itemsCount(), ctx.traversalLength);
+            expected.setSize(0, size[0], size[1]);
+            expected.resetContext();
+            buildHud(expected);
+            expected.setSize(0, size[0], size[1]);
+            expected.runContext();
+            for (int i = 0; i < ctx.itemsCount(); i++) {
+                assertArrayEquals(expected.getRect(i, new float[4]), ctx.getRect(i, new float[4]));
+            }
+        }
+
+        // linking items makes the order outdated
+        int extra = ctx.item();
+        ctx.setSize(extra, 50, 50);
+        ctx.push(ctx.firstChild(0), extra);
+        int expectedExtra = expected.item();
+        expected.setSize(expectedExtra, 50, 50);
+        expected.push(expected.firstChild(0), expectedExtra);
+        expected.runContext();
+        for (int run = 0; run < 2; run++) {
+            ctx.runContext();
+            assertEquals(ctx.itemsCount() - (run == 0 ? 1 : 0), ctx.traversalLength);
+            for (int i = 0; i < ctx.itemsCount(); i++) {
+                assertArrayEquals(expected.getRect(i, new float[4]), ctx.getRect(i, new float[4]));
+            }
+        }
+    }
+
+    @Test
+    public void paddingAndGap1() {
+        int root = ctx.item();
+        ctx.setContain(root, LAY_COLUMN | LAY_START);
+
+        // row sized by its children
+        int row = ctx.item();
+        ctx.setContain(row, LAY_ROW);
+        ctx.setPadding(row, 10, 5, 10, 5);
+        ctx.setGap(row, 4, 0);
+        ctx.setBehave(row, LAY_LEFT);
+        ctx.insert(root, row);
+        for (int i = 0; i < 3; i++) {
+            int child = ctx.item();
+            ctx.setSize(child, 20, 10);
+            ctx.insert(row, child);
+        }
+
+        // wrapped row with fixed width
+        int wrapped = ctx.item();
+        ctx.setSize(wrapped, 100, 0);
+        ctx.setContain(wrapped, LAY_ROW | LAY_WRAP | LAY_START);
+        ctx.setPadding(wrapped, 5, 5, 5, 5);
+        ctx.setGap(wrapped, 10, 2);
+        ctx.insert(root, wrapped);
+        for (int i = 0; i < 5; i++) {
+            int child = ctx.item();
+            ctx.setSize(child, 20, 10);
+            ctx.insert(wrapped, child);
+        }
+
+        // filling child of a fixed size container
+        int box = ctx.item();
+        ctx.setSize(box, 100, 100);
+        ctx.setPadding(box, 10, 10, 10, 10);
+        ctx.insert(root, box);
+        int fill = ctx.item();
+        ctx.setBehave(fill, LAY_FILL);
+        ctx.insert(box, fill);
+
+        ctx.runContext();
+
+        assertVec4Equals(ctx.getRect(row, new float[4]), 0, 0, 88, 20);
+        int child = ctx.firstChild(row);
+        float[] xs = { 10, 34, 58 };
+        for (float x : xs) {
+            assertVec4Equals(ctx.getRect(child, new float[4]), x, 5, 20, 10);
+            child = ctx.nextSibling(child);
+        }
+
+        // lines of 3 and 2 items within 90 of content width
+        assertVec4Equals(ctx.getRect(wrapped, new float[4]), 0, 20, 100, 32);
+        float[][] positions = { { 5, 25 }, { 35, 25 }, { 65, 25 }, { 5, 37 }, { 35, 37 } };
+        child = ctx.firstChild(wrapped);
+        for (float[] position : positions) {
+            assertVec4Equals(ctx.getRect(child, new float[4]), position[0], position[1], 20, 10);
+            child = ctx.nextSibling(child);
+        }
+
+        assertVec4Equals(ctx.getRect(box, new float[4]), 0, 52, 100, 100);
+        assertVec4Equals(ctx.getRect(fill, new float[4]), 10, 62, 80, 80);
+
+        assertArrayEquals(new float[] { 5, 5, 5, 5 }, ctx.getPaddingLTRB(wrapped, new float[4]));
+        assertArrayEquals(new float[] { 10, 2 }, ctx.getGap(wrapped, new float[2]));
+        assertArrayEquals(new float[] { 0, 0, 0, 0 }, ctx.getPaddingLTRB(fill, new float[4]));
+    }
+
+    private static void buildWide(LayoutContext ctx) {
+        int root = ctx.item();
+        ctx.setContain(root, LAY_ROW);
+        int[] contain = { LAY_COLUMN | LAY_JUSTIFY, LAY_ROW | LAY_WRAP | LAY_START, LAY_LAYOUT };
+        for (int c = 0; c < contain.length; c++) {
+            int container = ctx.item();
+            ctx.setBehave(container, LAY_FILL);
+            ctx.setContain(container, contain[c]);
+            ctx.insert(root, container);
+            int prev = Layout.LAY_INVALID_ID;
+            for (int i = 0; i < 6000; i++) {
+                int leaf = ctx.item();
+                ctx.setSize(leaf, 5 + i % 7, 3 + i % 5);
+                ctx.setBehave(leaf, i % 3 == 0 ? LAY_HFILL : LAY_LEFT);
+                if(prev == Layout.LAY_INVALID_ID) {
+                    ctx.insert(container, leaf);
+                } else {
+                    ctx.append(prev, leaf);
+                }
+                prev = leaf;
+            }
+        }
+    }
+
+    private static void buildHud(LayoutContext ctx) {
+        int root = ctx.item();
+        ctx.setSize(root, 300, 200);
+        ctx.setContain(root, LAY_COLUMN);
+
+        int toolbar = ctx.item();
+        ctx.setSize(toolbar, 0, 20);
+        ctx.setBehave(toolbar, LAY_HFILL);
+        ctx.setContain(toolbar, LAY_ROW | LAY_JUSTIFY);
+        ctx.insert(root, toolbar);
+        for (int i = 0; i < 4; i++) {
+            int button = ctx.item();
+            ctx.setSize(button, 25, 20);
+            ctx.setMargins(button, 1, 0, 1, 0);
+            ctx.insert(toolbar, button);
+        }
+
+        int body = ctx.item();
+        ctx.setBehave(body, LAY_FILL);
+        ctx.setContain(body, LAY_ROW);
+        ctx.insert(root, body);
+        int side = ctx.item();
+        ctx.setSize(side, 60, 0);
+        ctx.setBehave(side, LAY_VFILL);
+        ctx.insert(body, side);
+        int content = ctx.item();
+        ctx.setBehave(content, LAY_FILL);
+        ctx.setGrow(content, 2);
+        ctx.insert(body, content);
+        int badge = ctx.item();
+        ctx.setSize(badge, 10, 10);
+        ctx.setBehave(badge, LAY_RIGHT | LAY_BOTTOM);
+        ctx.insert(content, badge);
+        int tiles = ctx.item();
+        ctx.setBehave(tiles, LAY_FILL);
+        ctx.setContain(tiles, LAY_ROW | LAY_WRAP | LAY_START);
+        ctx.insert(body, tiles);
+        for (int i = 0; i < 7; i++) {
+            int tile = ctx.item();
+            ctx.setSize(tile, 20, 20);
+            ctx.insert(tiles, tile);
+        }
+    }
+
     private static void assertVec4Equals(float[] rect, float x, float y, float z, float w) {
         assertArrayEquals(new float[] { x, y, z, w }, rect);
     }